@@ -0,0 +1,358 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.core.CloudSimTags;
+import org.cloudbus.cloudsim.core.SimEvent;
+import org.cloudbus.cloudsim.lists.VmList;
+
+import java.util.*;
+
+/**
+ * Broker that grows and shrinks its VM pool while cloudlets run. Cloudlets wait in a FIFO at
+ * the broker and go to the least loaded VM that has a free slot (one per PE), so queue
+ * pressure shows up as broker queue length instead of hidden time sharing. Every control
+ * interval the broker looks at the queue per VM, the utilization of the pool over the interval
+ * (busy slot-seconds over provisioned slot-seconds, i.e. the share of PEs running a
+ * cloudlet, which is what a CPU meter inside each VM would read) and an EWMA of end-to-end response time (broker arrival to
+ * return):
+ *
+ * <ul>
+ * <li>scale up by max(1, active * scaleUpStep) VMs, up to maxVms, when the response EWMA is
+ * above targetResponse, more than scaleUpQueuePerVm cloudlets wait per VM, or utilization is
+ * above scaleUpUtilization, at most once per scaleUpCooldown;</li>
+ * <li>destroy VMs that have been idle for scaleDownIdle seconds, down to minVms, when nothing
+ * waits, utilization is below scaleDownUtilization, the response is cool and the last scale up
+ * is at least scaleDownCooldown ago. The EWMA only moves when a cloudlet returns, so with
+ * nothing in flight it still holds the last burst's value; the response counts as cool then,
+ * and otherwise when the EWMA is below scaleDownHeadroom * targetResponse.</li>
+ * </ul>
+ *
+ * New VMs copy the first submitted VM. The report gives VM-hours and utilization next to
+ * response quantiles, which is the trade-off a sweep over the policy (see ParameterSweep) is
+ * meant to map.
+ */
+public class AutoscalingBroker extends ResultStreamingBroker {
+
+    private static final int CONTROL = 46301;
+
+    /** Scaling thresholds; times in simulated seconds. */
+    public static class Policy {
+        public double controlInterval = 10;
+        public double targetResponse = 100;
+        public double ewmaWeight = 0.2;
+        public int minVms = 1;
+        public int maxVms = 100;
+        public double scaleUpStep = 0.5;
+        public double scaleUpQueuePerVm = 2;
+        public double scaleUpCooldown = 30;
+        public double scaleUpUtilization = 0.9;
+        public double scaleDownIdle = 60;
+        public double scaleDownHeadroom = 0.5;
+        public double scaleDownUtilization = 0.5;
+        public double scaleDownCooldown = 120;
+    }
+
+    private final Policy policy;
+    private final ArrayDeque<Cloudlet> waiting = new ArrayDeque<>();
+    private final Map<Integer, VmState> states = new HashMap<>();
+    private final Map<Integer, Double> arrivals = new HashMap<>();
+    private final QuantileSketch response = new QuantileSketch(0.01);
+    private Vm template;
+    private int nextVmId;
+    private int creating;
+    private boolean started;
+    private double responseEwma = -1;
+    private double lastScaleUp = Double.NEGATIVE_INFINITY;
+    private double vmSeconds;
+    private double peSeconds;
+    private double busyPeSeconds;
+    private double lastControl;
+    private int peakVms;
+    private int scaleUps;
+    private int scaleDowns;
+
+    public AutoscalingBroker(String name, Policy policy) throws Exception {
+        super(name);
+        this.policy = policy;
+    }
+
+    public double getVmHours() {
+        return vmSeconds / 3600;
+    }
+
+    /** Busy slot-seconds over provisioned slot-seconds (one slot per PE) for the whole run. */
+    public double getUtilization() {
+        return peSeconds == 0 ? 0 : busyPeSeconds / peSeconds;
+    }
+
+    public double getResponseQuantile(double q) {
+        return response.quantile(q);
+    }
+
+    public void printReport() {
+        Log.printLine(String.format(Locale.ROOT,
+                "Autoscaling: %.2f VM-hours at %.0f%% utilization, peak %d VMs, %d scale-ups, %d VMs retired; "
+                        + "response p50 %.2f  p95 %.2f  p99 %.2f",
+                getVmHours(), 100 * getUtilization(), peakVms, scaleUps, scaleDowns,
+                response.quantile(0.5), response.quantile(0.95), response.quantile(0.99)));
+    }
+
+    @Override
+    protected void createVmsInDatacenter(int datacenterId) {
+        if (template == null && !getVmList().isEmpty()) {
+            template = getVmList().get(0);
+            for (Vm vm : getVmList()) {
+                nextVmId = Math.max(nextVmId, vm.getId() + 1);
+            }
+        }
+        for (Vm vm : getVmList()) {
+            if (!getVmsToDatacentersMap().containsKey(vm.getId())) {
+                requestVm(vm, 0);
+            }
+        }
+    }
+
+    @Override
+    protected void processVmCreate(SimEvent ev) {
+        int[] data = (int[]) ev.getData();
+        int datacenterId = data[0];
+        Vm vm = VmList.getById(getVmList(), data[1]);
+        creating--;
+        if (data[2] == CloudSimTags.TRUE) {
+            getVmsToDatacentersMap().put(vm.getId(), datacenterId);
+            getVmsCreatedList().add(vm);
+            states.put(vm.getId(), new VmState(vm, CloudSim.clock()));
+            peakVms = Math.max(peakVms, states.size());
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": VM #" + vm.getId()
+                    + " has been created in Datacenter #" + datacenterId);
+        } else {
+            int next = getDatacenterIdsList().indexOf(datacenterId) + 1;
+            if (next < getDatacenterIdsList().size()) {
+                requestVm(vm, next);
+            } else {
+                Log.printLine(CloudSim.clock() + ": " + getName() + ": Creation of VM #" + vm.getId() + " failed everywhere");
+                getVmList().remove(vm);
+            }
+        }
+        if (creating == 0 && !started) {
+            started = true;
+            if (states.isEmpty()) {
+                Log.printLine(CloudSim.clock() + ": " + getName() + ": none of the required VMs could be created. Aborting");
+                finishExecution();
+                return;
+            }
+            lastControl = CloudSim.clock();
+            submitCloudlets();
+            schedule(getId(), policy.controlInterval, CONTROL);
+        }
+        dispatch();
+        // the last cloudlet may have returned while this VM was still being created
+        finishIfDone();
+    }
+
+    @Override
+    protected void submitCloudlets() {
+        for (Cloudlet cloudlet : getCloudletList()) {
+            arrive(cloudlet);
+        }
+        getCloudletList().clear();
+        dispatch();
+    }
+
+    @Override
+    protected void cloudletArrived(Cloudlet cloudlet) {
+        if (started) {
+            arrive(cloudlet);
+            dispatch();
+        } else {
+            getCloudletList().add(cloudlet);
+        }
+    }
+
+    @Override
+    protected void processOtherEvent(SimEvent ev) {
+        if (ev.getTag() != CONTROL) {
+            super.processOtherEvent(ev);
+            return;
+        }
+        finishIfDone();
+        if (!isFinished()) {
+            control();
+            schedule(getId(), policy.controlInterval, CONTROL);
+        }
+    }
+
+    @Override
+    protected void processCloudletReturn(SimEvent ev) {
+        Cloudlet cloudlet = (Cloudlet) ev.getData();
+        record(cloudlet);
+        cloudletsSubmitted--;
+        double latency = CloudSim.clock() - arrivals.remove(cloudlet.getCloudletId());
+        response.add(latency);
+        responseEwma = responseEwma < 0 ? latency : policy.ewmaWeight * latency + (1 - policy.ewmaWeight) * responseEwma;
+
+        VmState state = states.get(cloudlet.getVmId());
+        if (state != null) {
+            state.touch(CloudSim.clock());
+            state.inFlight--;
+            if (state.inFlight == 0) {
+                state.idleSince = CloudSim.clock();
+            }
+        }
+        dispatch();
+        finishIfDone();
+    }
+
+    /** Ends the run once every cloudlet is back and no VM creation is outstanding. */
+    private void finishIfDone() {
+        if (!started || isFinished() || !idle() || creating > 0) {
+            return;
+        }
+        Log.printLine(CloudSim.clock() + ": " + getName() + ": All Cloudlets executed. Finishing...");
+        for (VmState remaining : states.values()) {
+            close(remaining, CloudSim.clock());
+        }
+        clearDatacenters();
+        finishExecution();
+    }
+
+    private boolean idle() {
+        return waiting.isEmpty() && getPendingArrivals() == 0 && cloudletsSubmitted == 0;
+    }
+
+    private void arrive(Cloudlet cloudlet) {
+        arrivals.put(cloudlet.getCloudletId(), CloudSim.clock());
+        waiting.add(cloudlet);
+    }
+
+    /** Sends waiting cloudlets to the VM with the fewest in flight, while any has a free slot. */
+    private void dispatch() {
+        while (!waiting.isEmpty()) {
+            VmState best = null;
+            for (VmState state : states.values()) {
+                if (state.inFlight < state.vm.getNumberOfPes() && (best == null || state.inFlight < best.inFlight)) {
+                    best = state;
+                }
+            }
+            if (best == null) {
+                return;
+            }
+            Cloudlet cloudlet = waiting.poll();
+            cloudlet.setVmId(best.vm.getId());
+            best.touch(CloudSim.clock());
+            best.inFlight++;
+            sendNow(getVmsToDatacentersMap().get(best.vm.getId()), CloudSimTags.CLOUDLET_SUBMIT, cloudlet);
+            cloudletsSubmitted++;
+        }
+    }
+
+    private void control() {
+        double now = CloudSim.clock();
+        int active = states.size();
+        double utilization = utilization(now);
+        boolean slow = responseEwma > policy.targetResponse && !idle();
+        boolean queued = waiting.size() > policy.scaleUpQueuePerVm * Math.max(1, active);
+        boolean busy = utilization > policy.scaleUpUtilization;
+        if ((slow || queued || busy) && now - lastScaleUp >= policy.scaleUpCooldown && active + creating < policy.maxVms) {
+            int add = Math.min(policy.maxVms - active - creating, Math.max(1, (int) (active * policy.scaleUpStep)));
+            Log.printLine(now + ": " + getName() + ": scaling up by " + add + " VMs (waiting " + waiting.size()
+                    + ", utilization " + utilization + ", response EWMA " + responseEwma + ")");
+            for (int i = 0; i < add; i++) {
+                Vm vm = copyTemplate();
+                getVmList().add(vm);
+                requestVm(vm, 0);
+            }
+            lastScaleUp = now;
+            scaleUps++;
+            return;
+        }
+
+        boolean cool = (waiting.isEmpty() && cloudletsSubmitted == 0)
+                || responseEwma <= policy.scaleDownHeadroom * policy.targetResponse;
+        if (!waiting.isEmpty() || utilization >= policy.scaleDownUtilization || !cool
+                || now - lastScaleUp < policy.scaleDownCooldown) {
+            return;
+        }
+        for (Iterator<VmState> it = states.values().iterator(); it.hasNext() && states.size() > policy.minVms; ) {
+            VmState state = it.next();
+            if (state.inFlight == 0 && now - state.idleSince >= policy.scaleDownIdle) {
+                it.remove();
+                retire(state, now);
+            }
+        }
+    }
+
+    private void retire(VmState state, double now) {
+        Vm vm = state.vm;
+        Log.printLine(now + ": " + getName() + ": retiring idle VM #" + vm.getId());
+        sendNow(getVmsToDatacentersMap().get(vm.getId()), CloudSimTags.VM_DESTROY, vm);
+        getVmsCreatedList().remove(vm);
+        getVmsToDatacentersMap().remove(vm.getId());
+        getVmList().remove(vm);
+        close(state, now);
+        scaleDowns++;
+    }
+
+    /** Pool utilization since the previous control tick; also folds it into the run totals. */
+    private double utilization(double now) {
+        double busy = 0;
+        double capacity = 0;
+        for (VmState state : states.values()) {
+            state.touch(now);
+            busy += state.busy;
+            capacity += state.vm.getNumberOfPes() * (now - Math.max(state.created, lastControl));
+            busyPeSeconds += state.busy;
+            state.busy = 0;
+        }
+        lastControl = now;
+        return capacity > 0 ? busy / capacity : 0;
+    }
+
+    /** Adds a VM's lifetime and the busy time not yet counted to the run totals. */
+    private void close(VmState state, double now) {
+        state.touch(now);
+        busyPeSeconds += state.busy;
+        state.busy = 0;
+        vmSeconds += now - state.created;
+        peSeconds += state.vm.getNumberOfPes() * (now - state.created);
+    }
+
+    private void requestVm(Vm vm, int datacenterIndex) {
+        int datacenterId = getDatacenterIdsList().get(datacenterIndex);
+        creating++;
+        Log.printLine(CloudSim.clock() + ": " + getName() + ": Trying to Create VM #" + vm.getId()
+                + " in " + CloudSim.getEntityName(datacenterId));
+        sendNow(datacenterId, CloudSimTags.VM_CREATE_ACK, vm);
+    }
+
+    private Vm copyTemplate() {
+        CloudletScheduler scheduler = template.getCloudletScheduler() instanceof CloudletSchedulerSpaceShared
+                ? new CloudletSchedulerSpaceShared() : new CloudletSchedulerTimeShared();
+        return new Vm(nextVmId++, getId(), template.getMips(), template.getNumberOfPes(), template.getRam(),
+                template.getBw(), template.getSize(), template.getVmm(), scheduler);
+    }
+
+    private static final class VmState {
+        final Vm vm;
+        final double created;
+        int inFlight;
+        double idleSince;
+        /** Slot-seconds busy since the last control tick, counted up to since. */
+        double busy;
+        double since;
+
+        VmState(Vm vm, double created) {
+            this.vm = vm;
+            this.created = created;
+            this.idleSince = created;
+            this.since = created;
+        }
+
+        /** Counts the in-flight cloudlets' slot time up to now; call before inFlight changes. */
+        void touch(double now) {
+            busy += inFlight * (now - since);
+            since = now;
+        }
+    }
+}
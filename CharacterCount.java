@@ -1,43 +1,188 @@
 // WC_Mapper.java
 import java.io.IOException;
-import java.util.StringTokenizer;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 
 public class WC_Mapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, IntWritable> {
+    public static final String MODE = "charcount.mode";
+
+    private CodePointCounter counter;
+    private OutputCollector<Text, IntWritable> collector;
+    private MapTimer timer;
+
+    @Override
+    public void configure(JobConf job) {
+        timer = new MapTimer(job);
+        // "array" (default) counts code points in memory and emits them in close(), "split" keeps the per-character records
+        if (!"split".equals(job.get(MODE, "array"))) {
+            counter = new CodePointCounter();
+        }
+    }
+
     public void map(LongWritable key, Text value, OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
+        timer.startRecord();
+        if (counter != null) {
+            collector = output;
+            counter.add(value.getBytes(), 0, value.getLength());
+            timer.endRecord(reporter);
+            return;
+        }
         String line = value.toString();
         String[] tokenizer = line.split("");
         for(String SingleChar : tokenizer) {
             Text charKey = new Text(SingleChar);
             IntWritable One = new IntWritable(1);
+            timer.startCollect();
             output.collect(charKey, One);
+            timer.endCollect();
+        }
+        timer.endRecord(reporter);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (counter != null && collector != null) {
+            counter.emit(collector);
         }
     }
 }
 
+// CodePointCounter.java
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+
+// Counts code points straight from UTF-8 bytes: a dense array for the BMP and a map for the
+// rare supplementary characters. Malformed bytes are counted as U+FFFD (see Utf8).
+public class CodePointCounter {
+    private final long[] bmp = new long[0x10000];
+    private final Map<Integer, long[]> supplementary = new HashMap<>();
+
+    public void add(byte[] bytes, int start, int length) {
+        int end = start + length;
+        int i = start;
+        while (i < end) {
+            int b = bytes[i] & 0xff;
+            if (b < 0x80) {
+                bmp[b]++;
+                i++;
+                continue;
+            }
+            int n = Utf8.sequenceLength(bytes, i, end);
+            if (n == 0) {
+                bmp[0xfffd]++;
+                i++;
+                continue;
+            }
+            int cp = Utf8.codePoint(bytes, i, n);
+            if (cp < 0x10000) {
+                bmp[cp]++;
+            } else {
+                long[] count = supplementary.get(cp);
+                if (count == null) {
+                    supplementary.put(cp, count = new long[1]);
+                }
+                count[0]++;
+            }
+            i += n;
+        }
+    }
+
+    public long count(int codePoint) {
+        if (codePoint < 0x10000) {
+            return bmp[codePoint];
+        }
+        long[] count = supplementary.get(codePoint);
+        return count == null ? 0 : count[0];
+    }
+
+    // One record per distinct character; counts beyond Integer.MAX_VALUE are split over several records.
+    public void emit(OutputCollector<Text, IntWritable> output) throws IOException {
+        Text key = new Text();
+        IntWritable value = new IntWritable();
+        byte[] utf8 = new byte[4];
+        for (int cp = 0; cp < bmp.length; cp++) {
+            if (bmp[cp] != 0) {
+                emit(output, key, value, utf8, cp, bmp[cp]);
+            }
+        }
+        for (Map.Entry<Integer, long[]> entry : supplementary.entrySet()) {
+            emit(output, key, value, utf8, entry.getKey(), entry.getValue()[0]);
+        }
+    }
+
+    private static void emit(OutputCollector<Text, IntWritable> output, Text key, IntWritable value,
+                             byte[] utf8, int cp, long count) throws IOException {
+        key.set(utf8, 0, encode(cp, utf8));
+        while (count > 0) {
+            int chunk = (int) Math.min(count, Integer.MAX_VALUE);
+            value.set(chunk);
+            output.collect(key, value);
+            count -= chunk;
+        }
+    }
+
+    private static int encode(int cp, byte[] utf8) {
+        if (cp < 0x80) {
+            utf8[0] = (byte) cp;
+            return 1;
+        }
+        if (cp < 0x800) {
+            utf8[0] = (byte) (0xc0 | (cp >> 6));
+            utf8[1] = (byte) (0x80 | (cp & 0x3f));
+            return 2;
+        }
+        if (cp < 0x10000) {
+            utf8[0] = (byte) (0xe0 | (cp >> 12));
+            utf8[1] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            utf8[2] = (byte) (0x80 | (cp & 0x3f));
+            return 3;
+        }
+        utf8[0] = (byte) (0xf0 | (cp >> 18));
+        utf8[1] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        utf8[2] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        utf8[3] = (byte) (0x80 | (cp & 0x3f));
+        return 4;
+    }
+}
+
 // WC_Reducer.java
 import java.io.IOException;
 import java.util.Iterator;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 
 public class WC_Reducer extends MapReduceBase implements Reducer<Text, IntWritable, Text, IntWritable> {
+    private boolean mapSide;
+
+    @Override
+    public void configure(JobConf job) {
+        mapSide = JobMetrics.isMapSide(job);
+    }
+
     public void reduce(Text key, Iterator<IntWritable> values, OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
         int sum = 0;
+        long length = 0;
         while (values.hasNext()) {
             sum += values.next().get();
+            length++;
         }
         output.collect(key, new IntWritable(sum));
+        JobMetrics.recordValueList(reporter, mapSide, length);
     }
 }
 
@@ -50,12 +195,15 @@ import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.TextInputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class WC_Runner {
     public static void main(String[] args) throws IOException {
         JobConf conf = new JobConf(WC_Runner.class);
+        new GenericOptionsParser(conf, args);
         conf.setJobName("CharCount");
         conf.setOutputKeyClass(Text.class);
         conf.setOutputValueClass(IntWritable.class);
@@ -64,10 +212,15 @@ public class WC_Runner {
         conf.setReducerClass(WC_Reducer.class);
         conf.setInputFormat(TextInputFormat.class);
         conf.setOutputFormat(TextOutputFormat.class);
+        // countfile.output=true for binary output; map outputs are compressed either way
+        CountFileOutputFormat.configure(conf);
         
         FileInputFormat.setInputPaths(conf, new Path("input.txt"));
         FileOutputFormat.setOutputPath(conf, new Path("output"));
         
-        JobClient.runJob(conf);
+        // -Dmetrics.json=<path> writes the job's counters there (see JobMetrics)
+        long started = System.nanoTime();
+        RunningJob job = JobClient.runJob(conf);
+        JobMetrics.dump(conf, job.getCounters(), System.nanoTime() - started);
     }
 }
\ No newline at end of file
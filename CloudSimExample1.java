@@ -1,9 +1,14 @@
 import org.cloudbus.cloudsim.*;
 import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.examples.ResultStreamingBroker;
+import org.cloudbus.cloudsim.examples.ScenarioGenerator;
+import java.text.DecimalFormat;
 import java.util.*;
 import org.cloudbus.cloudsim.provisioners.*;
 
 public class CloudSimExample1 {
+    private static ScenarioGenerator scenario;
+
     public static void main(String[] args) {
         try {
             // Initialize CloudSim
@@ -12,13 +17,23 @@ public class CloudSimExample1 {
             boolean traceFlag = false;
             CloudSim.init(numUsers, calendar, traceFlag);
 
+            scenario = ScenarioGenerator.fromArgs(args);
+
             // Create Datacenter
-            Datacenter datacenter0 = createDatacenter("Datacenter_0");
+            int datacenters = scenario != null ? scenario.getDatacenterCount() : 1;
+            for (int i = 0; i < datacenters; i++) {
+                createDatacenter("Datacenter_" + i);
+            }
 
             // Create Broker
-            DatacenterBroker broker = new DatacenterBroker("Broker_0");
+            ResultStreamingBroker broker = createBroker();
             int brokerId = broker.getId();
 
+            if (scenario != null) {
+                scenario.run(broker);
+                return;
+            }
+
             // ========== EXAMPLE 1 ==========
             // Create one VM and one cloudlet
 
@@ -74,6 +89,10 @@ public class CloudSimExample1 {
 
     // Standard Datacenter with 1 Host
     private static Datacenter createDatacenter(String name) throws Exception {
+        if (scenario != null) {
+            return scenario.createDatacenter(name);
+        }
+
         List<Host> hostList = new ArrayList<>();
 
         List<Pe> peList = new ArrayList<>();
@@ -106,6 +125,11 @@ public class CloudSimExample1 {
                 new VmAllocationPolicySimple(hostList), storageList, 0);
     }
 
+    // Without a sink ResultStreamingBroker behaves like DatacenterBroker
+    private static ResultStreamingBroker createBroker() throws Exception {
+        return scenario != null ? scenario.createBroker("Broker_0") : new ResultStreamingBroker("Broker_0");
+    }
+
     // Output
       private static void printCloudletList(List<Cloudlet> list) {
         int size = list.size();
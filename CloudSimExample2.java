@@ -11,6 +11,7 @@ public class CloudSimExample2 {
 
     private static List<Cloudlet> cloudletList;
     private static List<Vm> vmlist;
+    private static ScenarioGenerator scenario;
 
     public static void main(String[] args) {
         Log.printLine("Starting CloudSimExample3 with priority scheduling...");
@@ -21,10 +22,21 @@ public class CloudSimExample2 {
             boolean traceFlag = false;
             CloudSim.init(numUser, calendar, traceFlag);
 
-            Datacenter datacenter0 = createDatacenter("Datacenter_0");
-            PriorityDatacenterBroker broker = new PriorityDatacenterBroker("PriorityBroker");
+            scenario = ScenarioGenerator.fromArgs(args, "broker", "priority");
+
+            int datacenters = scenario != null ? scenario.getDatacenterCount() : 1;
+            for (int i = 0; i < datacenters; i++) {
+                createDatacenter("Datacenter_" + i);
+            }
+            ResultStreamingBroker broker = createBroker();
             int brokerId = broker.getId();
 
+            if (scenario != null) {
+                scenario.run(broker);
+                Log.printLine("CloudSimExample3 finished!");
+                return;
+            }
+
             vmlist = new ArrayList<>();
             int mips = 250;
             long size = 10000;
@@ -70,6 +82,15 @@ public class CloudSimExample2 {
     }
 
     private static Datacenter createDatacenter(String name) {
+        if (scenario != null) {
+            try {
+                return scenario.createDatacenter(name);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
         List<Host> hostList = new ArrayList<>();
 
         int mips = 1000;
@@ -111,6 +132,16 @@ public class CloudSimExample2 {
         return datacenter;
     }
 
+    private static ResultStreamingBroker createBroker() {
+        ResultStreamingBroker broker = null;
+        try {
+            broker = scenario != null ? scenario.createBroker("PriorityBroker") : new PriorityDatacenterBroker("PriorityBroker");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return broker;
+    }
+
     private static void printCloudletList(List<Cloudlet> list) {
         String indent = "    ";
         Log.printLine();
@@ -131,16 +162,3 @@ public class CloudSimExample2 {
         }
     }
 }
-
-class PriorityDatacenterBroker extends DatacenterBroker {
-
-    public PriorityDatacenterBroker(String name) throws Exception {
-        super(name);
-    }
-
-    @Override
-    protected void submitCloudlets() {
-        getCloudletList().sort(Comparator.comparingLong(Cloudlet::getCloudletLength)); // Lower length = higher priority
-        super.submitCloudlets();
-    }
-}
\ No newline at end of file
@@ -11,6 +11,7 @@ public class CloudSimExample3 {
 
     private static List<Cloudlet> cloudletList;
     private static List<Vm> vmlist;
+    private static ScenarioGenerator scenario;
 
     public static void main(String[] args) {
         Log.printLine("Starting CloudSimExample3...");
@@ -21,10 +22,21 @@ public class CloudSimExample3 {
             boolean traceFlag = false;
             CloudSim.init(numUser, calendar, traceFlag);
 
-            Datacenter datacenter0 = createDatacenter("Datacenter_0");
-            DatacenterBroker broker = createBroker();
+            scenario = ScenarioGenerator.fromArgs(args, "broker", "completionTime", "broker.heuristic", "min-min");
+
+            int datacenters = scenario != null ? scenario.getDatacenterCount() : 1;
+            for (int i = 0; i < datacenters; i++) {
+                createDatacenter("Datacenter_" + i);
+            }
+            ResultStreamingBroker broker = createBroker();
             int brokerId = broker.getId();
 
+            if (scenario != null) {
+                scenario.run(broker);
+                Log.printLine("CloudSimExample3 finished!");
+                return;
+            }
+
             vmlist = new ArrayList<>();
             int mips = 250;
             long size = 10000;
@@ -52,11 +64,9 @@ public class CloudSimExample3 {
 
             cloudletList.add(cloudlet1);
             cloudletList.add(cloudlet2);
+            // no explicit binding: the broker places each cloudlet on the VM where it finishes first
             broker.submitCloudletList(cloudletList);
 
-            broker.bindCloudletToVm(cloudlet1.getCloudletId(), vm1.getId());
-            broker.bindCloudletToVm(cloudlet2.getCloudletId(), vm2.getId());
-
             CloudSim.startSimulation();
             List<Cloudlet> newList = broker.getCloudletReceivedList();
             CloudSim.stopSimulation();
@@ -71,6 +81,15 @@ public class CloudSimExample3 {
     }
 
     private static Datacenter createDatacenter(String name) {
+        if (scenario != null) {
+            try {
+                return scenario.createDatacenter(name);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
         List<Host> hostList = new ArrayList<>();
 
         int mips = 1000;
@@ -112,10 +131,11 @@ public class CloudSimExample3 {
         return datacenter;
     }
 
-    private static DatacenterBroker createBroker() {
-        DatacenterBroker broker = null;
+    private static ResultStreamingBroker createBroker() {
+        ResultStreamingBroker broker = null;
         try {
-            broker = new DatacenterBroker("Broker");
+            broker = scenario != null ? scenario.createBroker("Broker")
+                    : new CompletionTimeBroker("Broker", CompletionTimeBroker.Heuristic.MIN_MIN);
         } catch (Exception e) {
             e.printStackTrace();
         }
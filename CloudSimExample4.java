@@ -1,4 +1,5 @@
 package org.cloudbus.cloudsim.examples;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.*;
 import org.cloudbus.cloudsim.*;
@@ -10,6 +11,7 @@ public class CloudSimExample4 {
 
     private static List<Cloudlet> cloudletList;
     private static List<Vm> vmlist;
+    private static ScenarioGenerator scenario;
 
     public static void main(String[] args) {
         Log.printLine("Starting CloudSimExample4...");
@@ -21,14 +23,24 @@ public class CloudSimExample4 {
             boolean trace_flag = false;
             CloudSim.init(num_user, calendar, trace_flag);
 
+            scenario = ScenarioGenerator.fromArgs(args);
+
             // Create Datacenters
-            Datacenter datacenter0 = createDatacenter("Datacenter_0");
-            Datacenter datacenter1 = createDatacenter("Datacenter_1");
+            int datacenters = scenario != null ? scenario.getDatacenterCount() : 2;
+            for (int i = 0; i < datacenters; i++) {
+                createDatacenter("Datacenter_" + i);
+            }
 
             // Create Broker
-            DatacenterBroker broker = createBroker();
+            ResultStreamingBroker broker = createBroker();
             int brokerId = broker.getId();
 
+            if (scenario != null) {
+                scenario.run(broker);
+                Log.printLine("CloudSimExample4 finished!");
+                return;
+            }
+
             // Create Virtual Machines
             vmlist = new ArrayList<>();
 
@@ -74,15 +86,7 @@ public class CloudSimExample4 {
             broker.bindCloudletToVm(cloudlet1.getCloudletId(), vm1.getId());
             broker.bindCloudletToVm(cloudlet2.getCloudletId(), vm2.getId());
 
-            // Start Simulation
-            CloudSim.startSimulation();
-
-            // Stop Simulation
-            List<Cloudlet> newList = broker.getCloudletReceivedList();
-            CloudSim.stopSimulation();
-
-            printCloudletList(newList);
-            Log.printLine("CloudSimExample4 finished!");
+            runSimulation(broker);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -90,7 +94,36 @@ public class CloudSimExample4 {
         }
     }
 
+    private static void runSimulation(ResultStreamingBroker broker) throws IOException {
+        // Finished cloudlets go to the sink as they return, next to the received list the
+        // per-cloudlet table is printed from
+        CloudletResultSink sink = new CloudletResultSink();
+        broker.setResultSink(sink);
+
+        // Start Simulation
+        CloudSim.startSimulation();
+
+        // Stop Simulation
+        List<Cloudlet> newList = broker.getCloudletReceivedList();
+        CloudSim.stopSimulation();
+        sink.close();
+
+        printCloudletList(newList);
+        sink.printSummary(vmlist);
+        ScenarioGenerator.printReport(broker);
+        Log.printLine("CloudSimExample4 finished!");
+    }
+
     private static Datacenter createDatacenter(String name) {
+        if (scenario != null) {
+            try {
+                return scenario.createDatacenter(name);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
         List<Host> hostList = new ArrayList<>();
 
         List<Pe> peList = new ArrayList<>();
@@ -135,10 +168,10 @@ public class CloudSimExample4 {
         return datacenter;
     }
 
-    private static DatacenterBroker createBroker() {
-        DatacenterBroker broker = null;
+    private static ResultStreamingBroker createBroker() {
+        ResultStreamingBroker broker = null;
         try {
-            broker = new DatacenterBroker("Broker");
+            broker = scenario != null ? scenario.createBroker("Broker") : new SpilloverDatacenterBroker("Broker");
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -0,0 +1,161 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Takes finished cloudlets one at a time, optionally appends each as a CSV row, and keeps only
+ * aggregates: makespan, throughput, response (finish - submission) and wait (start - submission)
+ * quantiles from a {@link QuantileSketch}, cost, and busy time per VM. Memory is bounded by the
+ * number of VMs, not cloudlets, so a broker that feeds it (see ResultStreamingBroker) does not
+ * need to keep its received list.
+ *
+ * CSV columns: cloudlet,status,datacenter,vm,cpuTime,submitted,started,finished,cost
+ */
+public class CloudletResultSink implements Closeable {
+
+    private final Writer csv;
+    private final StringBuilder row = new StringBuilder(96);
+    private final QuantileSketch response = new QuantileSketch(0.01);
+    private final QuantileSketch wait = new QuantileSketch(0.01);
+    private final Map<Integer, double[]> vmBusy = new HashMap<>();
+    private long count;
+    private long succeeded;
+    private double firstSubmission = Double.MAX_VALUE;
+    private double makespan;
+    private double responseSum;
+    private double waitSum;
+    private double cost;
+
+    /** Aggregates only, no per-cloudlet output. */
+    public CloudletResultSink() {
+        this.csv = null;
+    }
+
+    public CloudletResultSink(File csvFile) throws IOException {
+        this.csv = new BufferedWriter(new FileWriter(csvFile), 1 << 16);
+        csv.write("cloudlet,status,datacenter,vm,cpuTime,submitted,started,finished,cost\n");
+    }
+
+    public void accept(Cloudlet cloudlet) {
+        count++;
+        boolean success = cloudlet.getCloudletStatus() == Cloudlet.SUCCESS;
+        if (csv != null) {
+            row.setLength(0);
+            row.append(cloudlet.getCloudletId()).append(',')
+                    .append(success ? "SUCCESS" : "FAILED").append(',')
+                    .append(cloudlet.getResourceId()).append(',')
+                    .append(cloudlet.getVmId()).append(',')
+                    .append(cloudlet.getActualCPUTime()).append(',')
+                    .append(cloudlet.getSubmissionTime()).append(',')
+                    .append(cloudlet.getExecStartTime()).append(',')
+                    .append(cloudlet.getFinishTime()).append(',')
+                    .append(cloudlet.getProcessingCost()).append('\n');
+            try {
+                csv.append(row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (!success) {
+            return;
+        }
+        succeeded++;
+        double submitted = cloudlet.getSubmissionTime();
+        double responseTime = cloudlet.getFinishTime() - submitted;
+        double waitTime = cloudlet.getExecStartTime() - submitted;
+        firstSubmission = Math.min(firstSubmission, submitted);
+        makespan = Math.max(makespan, cloudlet.getFinishTime());
+        responseSum += responseTime;
+        waitSum += waitTime;
+        response.add(responseTime);
+        wait.add(waitTime);
+        cost += cloudlet.getProcessingCost();
+
+        double[] busy = vmBusy.get(cloudlet.getVmId());
+        if (busy == null) {
+            busy = new double[1];
+            vmBusy.put(cloudlet.getVmId(), busy);
+        }
+        busy[0] += cloudlet.getActualCPUTime() * cloudlet.getNumberOfPes();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSucceeded() {
+        return succeeded;
+    }
+
+    public double getMakespan() {
+        return makespan;
+    }
+
+    /** Finished cloudlets per simulated second, from the first submission to the last finish. */
+    public double getThroughput() {
+        double span = makespan - (succeeded == 0 ? 0 : firstSubmission);
+        return span <= 0 ? 0 : succeeded / span;
+    }
+
+    public double getMeanResponse() {
+        return succeeded == 0 ? 0 : responseSum / succeeded;
+    }
+
+    public double getMeanWait() {
+        return succeeded == 0 ? 0 : waitSum / succeeded;
+    }
+
+    public double getResponseQuantile(double q) {
+        return response.quantile(q);
+    }
+
+    public double getWaitQuantile(double q) {
+        return wait.quantile(q);
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    /** Busy PE-seconds of the VM over its PE-seconds up to the makespan. */
+    public double getUtilization(Vm vm) {
+        double[] busy = vmBusy.get(vm.getId());
+        return busy == null || makespan <= 0 ? 0 : busy[0] / (makespan * vm.getNumberOfPes());
+    }
+
+    public void printSummary(List<? extends Vm> vms) {
+        Log.printLine();
+        Log.printLine("========== SUMMARY ==========");
+        Log.printLine("Cloudlets: " + count + " finished, " + succeeded + " succeeded");
+        Log.printLine(String.format(Locale.ROOT, "Makespan: %.2f  Throughput: %.4f/s  Cost: %.2f",
+                makespan, getThroughput(), cost));
+        Log.printLine(String.format(Locale.ROOT, "Response: mean %.2f  p50 %.2f  p95 %.2f  p99 %.2f",
+                getMeanResponse(), response.quantile(0.5), response.quantile(0.95), response.quantile(0.99)));
+        Log.printLine(String.format(Locale.ROOT, "Wait:     mean %.2f  p50 %.2f  p95 %.2f  p99 %.2f",
+                getMeanWait(), wait.quantile(0.5), wait.quantile(0.95), wait.quantile(0.99)));
+        if (vms.isEmpty()) {
+            return;
+        }
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (Vm vm : vms) {
+            double utilization = getUtilization(vm);
+            sum += utilization;
+            min = Math.min(min, utilization);
+            max = Math.max(max, utilization);
+        }
+        Log.printLine(String.format(Locale.ROOT, "VM utilization: mean %.1f%%  min %.1f%%  max %.1f%% over %d VMs",
+                100 * sum / vms.size(), 100 * min, 100 * max, vms.size()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (csv != null) {
+            csv.close();
+        }
+    }
+}
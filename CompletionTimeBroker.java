@@ -0,0 +1,324 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.core.SimEvent;
+
+import java.util.*;
+
+/**
+ * Broker that binds each unbound cloudlet to the VM where it is expected to finish first,
+ * instead of DatacenterBroker's round robin. A VM's ready time is when the work already bound
+ * to it would drain if spread over all its PEs (and never before now): a cloudlet of length L
+ * on p PEs adds L * p / (mips * vmPes) to it. The cloudlet itself cannot run faster than its
+ * own PEs allow, so it is expected to complete at max(ready, now) + L / mips, the ready time
+ * before it was bound plus its length at the VM's per-PE speed; a wide slow VM is not mistaken
+ * for a fast one.
+ *
+ * VMs with the same MIPS and PE count form a speed class, kept in a TreeSet ordered by ready
+ * time, so the best VM of a class is its first element and the best VM overall is the best of
+ * the k class heads. Binding n cloudlets costs O(n k log m); k is small in practice. VMs
+ * created or destroyed after the first submission are picked up on the next one.
+ *
+ * A cloudlet fits only on VMs with at least as many PEs, so cloudlets are grouped by the set of
+ * speed classes they fit on. Within a group the earliest completion grows with L on every VM,
+ * so the group's Min-Min candidate is its shortest cloudlet and its Max-Min candidate its
+ * longest; each step compares only the group heads and binds the winner, which is exact
+ * Min-Min / Max-Min in O(n g k log m) for g groups. Sufferage (gap between the best and
+ * second-best completion time) is approximate: it is kept in a max-heap and a popped cloudlet
+ * is re-evaluated and bound only if its fresh value still beats the next entry. The entries
+ * below it are not refreshed, and a cloudlet's sufferage rises when its runner-up VM fills up,
+ * so one whose stale value understates it can be bound later than exact Sufferage (which
+ * re-evaluates every cloudlet each step, O(n^2 k)) would bind it.
+ */
+public class CompletionTimeBroker extends ResultStreamingBroker {
+
+    public enum Heuristic { MCT, MIN_MIN, MAX_MIN, SUFFERAGE }
+
+    private final Heuristic heuristic;
+    private final List<SpeedClass> classes = new ArrayList<>();
+    private final Map<String, SpeedClass> byKey = new HashMap<>();
+    private final Map<Integer, VmSlot> slots = new HashMap<>();
+    private boolean vmsChanged = true;
+
+    public CompletionTimeBroker(String name) throws Exception {
+        this(name, Heuristic.MCT);
+    }
+
+    public CompletionTimeBroker(String name, Heuristic heuristic) throws Exception {
+        super(name);
+        this.heuristic = heuristic;
+    }
+
+    /** Expected time at which the work bound so far to the VM completes, or -1 if unknown. */
+    public double getReadyTime(int vmId) {
+        VmSlot slot = slots.get(vmId);
+        return slot == null ? -1 : slot.ready;
+    }
+
+    @Override
+    protected void processVmCreate(SimEvent ev) {
+        // set first: DatacenterBroker submits the cloudlets from here once the last VM is acknowledged
+        vmsChanged = true;
+        super.processVmCreate(ev);
+    }
+
+    @Override
+    protected void clearDatacenters() {
+        vmsChanged = true;
+        super.clearDatacenters();
+    }
+
+    @Override
+    protected void submitCloudlets() {
+        if (vmsChanged || slots.size() != getVmsCreatedList().size()) {
+            indexVms();
+        }
+        List<Cloudlet> unbound = new ArrayList<>();
+        for (Cloudlet cloudlet : getCloudletList()) {
+            VmSlot slot = slots.get(cloudlet.getVmId());
+            if (slot != null) {
+                assign(cloudlet, slot);
+            } else if (cloudlet.getVmId() == -1) {
+                unbound.add(cloudlet);
+            }
+        }
+
+        switch (heuristic) {
+            case MIN_MIN:
+                bindByGroups(unbound, false);
+                break;
+            case MAX_MIN:
+                bindByGroups(unbound, true);
+                break;
+            case SUFFERAGE:
+                bindBySufferage(unbound);
+                break;
+            default:
+                bindInOrder(unbound);
+        }
+        super.submitCloudlets();
+    }
+
+    /** Brings the slots in line with the created VMs: new VMs start ready now, destroyed ones are dropped. */
+    private void indexVms() {
+        Set<Integer> created = new HashSet<>();
+        for (Vm vm : getVmsCreatedList()) {
+            created.add(vm.getId());
+        }
+        for (Iterator<VmSlot> it = slots.values().iterator(); it.hasNext(); ) {
+            VmSlot slot = it.next();
+            if (!created.contains(slot.vmId)) {
+                it.remove();
+                slot.speedClass.vms.remove(slot);
+                if (slot.speedClass.vms.isEmpty()) {
+                    classes.remove(slot.speedClass);
+                    byKey.values().remove(slot.speedClass);
+                }
+            }
+        }
+        vmsChanged = false;
+        double now = CloudSim.clock();
+        for (Vm vm : getVmsCreatedList()) {
+            if (slots.containsKey(vm.getId())) {
+                continue;
+            }
+            String key = vm.getMips() + "x" + vm.getNumberOfPes();
+            SpeedClass speedClass = byKey.get(key);
+            if (speedClass == null) {
+                speedClass = new SpeedClass(vm.getMips(), vm.getNumberOfPes());
+                byKey.put(key, speedClass);
+                classes.add(speedClass);
+            }
+            VmSlot slot = new VmSlot(vm.getId(), speedClass, now);
+            speedClass.vms.add(slot);
+            slots.put(vm.getId(), slot);
+        }
+    }
+
+    private void bindInOrder(List<Cloudlet> cloudlets) {
+        for (Cloudlet cloudlet : cloudlets) {
+            VmSlot best = best(cloudlet);
+            if (best != null) {
+                assign(cloudlet, best);
+            }
+        }
+    }
+
+    /**
+     * Min-Min, or Max-Min if largest, over groups of cloudlets that fit on the same speed
+     * classes; a group is keyed by the smallest class PE count that holds its cloudlets.
+     */
+    private void bindByGroups(List<Cloudlet> cloudlets, boolean largest) {
+        TreeSet<Integer> classPes = new TreeSet<>();
+        for (SpeedClass speedClass : classes) {
+            classPes.add(speedClass.pes);
+        }
+        Map<Integer, List<Cloudlet>> byFit = new HashMap<>();
+        for (Cloudlet cloudlet : cloudlets) {
+            Integer key = classPes.ceiling(cloudlet.getNumberOfPes());
+            if (key == null) {
+                continue;
+            }
+            List<Cloudlet> group = byFit.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                byFit.put(key, group);
+            }
+            group.add(cloudlet);
+        }
+        List<ArrayDeque<Cloudlet>> groups = new ArrayList<>();
+        for (List<Cloudlet> group : byFit.values()) {
+            Collections.sort(group, largest ? Collections.reverseOrder(BY_LENGTH) : BY_LENGTH);
+            groups.add(new ArrayDeque<>(group));
+        }
+        while (!groups.isEmpty()) {
+            ArrayDeque<Cloudlet> pick = null;
+            VmSlot pickSlot = null;
+            double pickTime = 0;
+            for (ArrayDeque<Cloudlet> group : groups) {
+                VmSlot slot = best(group.peek());
+                double time = completion(group.peek(), slot);
+                if (pick == null || (largest ? time > pickTime : time < pickTime)) {
+                    pick = group;
+                    pickSlot = slot;
+                    pickTime = time;
+                }
+            }
+            assign(pick.poll(), pickSlot);
+            if (pick.isEmpty()) {
+                groups.remove(pick);
+            }
+        }
+    }
+
+    private void bindBySufferage(List<Cloudlet> cloudlets) {
+        PriorityQueue<Candidate> heap = new PriorityQueue<>();
+        for (Cloudlet cloudlet : cloudlets) {
+            heap.add(new Candidate(cloudlet, sufferage(cloudlet)));
+        }
+        while (!heap.isEmpty()) {
+            Candidate top = heap.poll();
+            double fresh = sufferage(top.cloudlet);
+            if (!heap.isEmpty() && fresh < heap.peek().sufferage) {
+                top.sufferage = fresh;
+                heap.add(top);
+                continue;
+            }
+            VmSlot best = best(top.cloudlet);
+            if (best != null) {
+                assign(top.cloudlet, best);
+            }
+        }
+    }
+
+    /** VM with the earliest expected completion for the cloudlet, or null if none has enough PEs. */
+    private VmSlot best(Cloudlet cloudlet) {
+        VmSlot best = null;
+        double bestTime = Double.MAX_VALUE;
+        for (SpeedClass speedClass : classes) {
+            if (speedClass.pes < cloudlet.getNumberOfPes()) {
+                continue;
+            }
+            VmSlot head = speedClass.vms.first();
+            double time = completion(cloudlet, head);
+            if (time < bestTime) {
+                bestTime = time;
+                best = head;
+            }
+        }
+        return best;
+    }
+
+    private double sufferage(Cloudlet cloudlet) {
+        double first = Double.MAX_VALUE;
+        double second = Double.MAX_VALUE;
+        for (SpeedClass speedClass : classes) {
+            if (speedClass.pes < cloudlet.getNumberOfPes()) {
+                continue;
+            }
+            // the second-best VM is either the runner-up of the winning class or another class's head
+            Iterator<VmSlot> it = speedClass.vms.iterator();
+            for (int i = 0; i < 2 && it.hasNext(); i++) {
+                double time = completion(cloudlet, it.next());
+                if (time < first) {
+                    second = first;
+                    first = time;
+                } else if (time < second) {
+                    second = time;
+                }
+            }
+        }
+        return second == Double.MAX_VALUE ? Double.MAX_VALUE : second - first;
+    }
+
+    /** When the cloudlet is expected to complete on the VM: after the bound work, at one PE's speed per PE. */
+    private static double completion(Cloudlet cloudlet, VmSlot slot) {
+        return Math.max(slot.ready, CloudSim.clock()) + cloudlet.getCloudletLength() / slot.speedClass.mips;
+    }
+
+    private void assign(Cloudlet cloudlet, VmSlot slot) {
+        SpeedClass speedClass = slot.speedClass;
+        speedClass.vms.remove(slot);
+        slot.ready = Math.max(slot.ready, CloudSim.clock()) + work(cloudlet) / (speedClass.mips * speedClass.pes);
+        speedClass.vms.add(slot);
+        cloudlet.setVmId(slot.vmId);
+    }
+
+    private static double work(Cloudlet cloudlet) {
+        return (double) cloudlet.getCloudletLength() * cloudlet.getNumberOfPes();
+    }
+
+    private static final Comparator<Cloudlet> BY_LENGTH = new Comparator<Cloudlet>() {
+        @Override
+        public int compare(Cloudlet a, Cloudlet b) {
+            int c = Long.compare(a.getCloudletLength(), b.getCloudletLength());
+            return c == 0 ? Integer.compare(a.getCloudletId(), b.getCloudletId()) : c;
+        }
+    };
+
+    private static final class SpeedClass {
+        final double mips;
+        final int pes;
+        final TreeSet<VmSlot> vms = new TreeSet<>();
+
+        SpeedClass(double mips, int pes) {
+            this.mips = mips;
+            this.pes = pes;
+        }
+    }
+
+    private static final class VmSlot implements Comparable<VmSlot> {
+        final int vmId;
+        final SpeedClass speedClass;
+        double ready;
+
+        VmSlot(int vmId, SpeedClass speedClass, double ready) {
+            this.vmId = vmId;
+            this.speedClass = speedClass;
+            this.ready = ready;
+        }
+
+        @Override
+        public int compareTo(VmSlot other) {
+            int c = Double.compare(ready, other.ready);
+            return c == 0 ? Integer.compare(vmId, other.vmId) : c;
+        }
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+        final Cloudlet cloudlet;
+        double sufferage;
+
+        Candidate(Cloudlet cloudlet, double sufferage) {
+            this.cloudlet = cloudlet;
+            this.sufferage = sufferage;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int c = Double.compare(other.sufferage, sufferage); // larger sufferage first
+            return c == 0 ? Integer.compare(cloudlet.getCloudletId(), other.cloudlet.getCloudletId()) : c;
+        }
+    }
+}
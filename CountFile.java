@@ -0,0 +1,352 @@
+// CountFileWriter.java
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.ReflectionUtils;
+
+// Binary counts file: keys in ascending byte order, each record a vint key length, the key bytes
+// and a vlong count. Records are grouped into blocks of about countfile.block.bytes, each block
+// compressed on its own with the job's output codec (DefaultCodec unless
+// mapreduce.output.fileoutputformat.compress.codec says otherwise). The footer lists every
+// block's first key, offset and lengths so CountFileReader can binary-search to one block:
+//
+//   MAGIC block* footer footerOffset:long MAGIC
+//   footer = codec:Text blocks:vint (firstKey:Text offset:vlong stored:vint raw:vint)* records:vlong
+public class CountFileWriter implements Closeable {
+    public static final String BLOCK_BYTES = "countfile.block.bytes";
+    static final int MAGIC = 0x434e5431; // "CNT1"
+
+    private final DataOutputStream out;
+    private final CompressionCodec codec;
+    private final Compressor compressor;
+    private final int blockBytes;
+    private final DataOutputBuffer block = new DataOutputBuffer();
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private final List<byte[]> firstKeys = new ArrayList<>();
+    private final List<long[]> blocks = new ArrayList<>();
+    private byte[] lastKey = new byte[0];
+    private int lastKeyLength = -1;
+    private long position;
+    private long records;
+
+    public CountFileWriter(OutputStream out, JobConf conf) throws IOException {
+        this.out = new DataOutputStream(out);
+        codec = ReflectionUtils.newInstance(FileOutputFormat.getOutputCompressorClass(conf, DefaultCodec.class), conf);
+        compressor = CodecPool.getCompressor(codec, conf);
+        blockBytes = conf.getInt(BLOCK_BYTES, 64 << 10);
+        this.out.writeInt(MAGIC);
+        position = 4;
+    }
+
+    public void append(Text key, long count) throws IOException {
+        if (lastKeyLength >= 0
+                && WritableComparator.compareBytes(lastKey, 0, lastKeyLength, key.getBytes(), 0, key.getLength()) >= 0) {
+            throw new IOException("Keys out of order: " + key + " after " + new String(lastKey, 0, lastKeyLength, "UTF-8"));
+        }
+        if (block.getLength() == 0) {
+            firstKeys.add(key.copyBytes());
+        }
+        WritableUtils.writeVInt(block, key.getLength());
+        block.write(key.getBytes(), 0, key.getLength());
+        WritableUtils.writeVLong(block, count);
+        records++;
+
+        if (lastKey.length < key.getLength()) {
+            lastKey = new byte[Math.max(key.getLength(), lastKey.length * 2)];
+        }
+        System.arraycopy(key.getBytes(), 0, lastKey, 0, key.getLength());
+        lastKeyLength = key.getLength();
+
+        if (block.getLength() >= blockBytes) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (block.getLength() == 0) {
+            return;
+        }
+        compressed.reset();
+        compressor.reset();
+        CompressionOutputStream deflater = codec.createOutputStream(compressed, compressor);
+        deflater.write(block.getData(), 0, block.getLength());
+        deflater.finish();
+        compressed.writeTo(out);
+        blocks.add(new long[] {position, compressed.size(), block.getLength()});
+        position += compressed.size();
+        block.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            long footer = position;
+            Text.writeString(out, codec.getClass().getName());
+            WritableUtils.writeVInt(out, blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                WritableUtils.writeVInt(out, firstKeys.get(i).length);
+                out.write(firstKeys.get(i));
+                WritableUtils.writeVLong(out, blocks.get(i)[0]);
+                WritableUtils.writeVInt(out, (int) blocks.get(i)[1]);
+                WritableUtils.writeVInt(out, (int) blocks.get(i)[2]);
+            }
+            WritableUtils.writeVLong(out, records);
+            out.writeLong(footer);
+            out.writeInt(MAGIC);
+            out.close();
+        } finally {
+            CodecPool.returnCompressor(compressor);
+        }
+    }
+}
+
+// CountFileReader.java
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+
+// Reads a CountFileWriter file: get() binary-searches the footer index and decompresses a single
+// block, next() walks all records in key order.
+public class CountFileReader implements Closeable {
+    private final FSDataInputStream in;
+    private final CompressionCodec codec;
+    private final Decompressor decompressor;
+    private final byte[][] firstKeys;
+    private final long[] offsets;
+    private final int[] storedLengths;
+    private final int[] rawLengths;
+    private final long records;
+    private final DataInputBuffer block = new DataInputBuffer();
+    private byte[] stored = new byte[0];
+    private byte[] raw = new byte[0];
+    private int loaded = -1;
+    private int cursor = -1;
+    private final Text probe = new Text();
+
+    public CountFileReader(FileSystem fs, Path path, Configuration conf) throws IOException {
+        long length = fs.getFileStatus(path).getLen();
+        in = fs.open(path);
+        try {
+            if (length < 16 || in.readInt() != CountFileWriter.MAGIC) {
+                throw new IOException(path + " is not a count file");
+            }
+            in.seek(length - 12);
+            long footer = in.readLong();
+            if (in.readInt() != CountFileWriter.MAGIC) {
+                throw new IOException(path + " is truncated");
+            }
+            in.seek(footer);
+            try {
+                codec = (CompressionCodec) ReflectionUtils.newInstance(conf.getClassByName(Text.readString(in)), conf);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            int blocks = WritableUtils.readVInt(in);
+            firstKeys = new byte[blocks][];
+            offsets = new long[blocks];
+            storedLengths = new int[blocks];
+            rawLengths = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                firstKeys[i] = new byte[WritableUtils.readVInt(in)];
+                in.readFully(firstKeys[i]);
+                offsets[i] = WritableUtils.readVLong(in);
+                storedLengths[i] = WritableUtils.readVInt(in);
+                rawLengths[i] = WritableUtils.readVInt(in);
+            }
+            records = WritableUtils.readVLong(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        decompressor = CodecPool.getDecompressor(codec);
+    }
+
+    public long size() {
+        return records;
+    }
+
+    // The count stored for key, or -1 if the key is absent.
+    public long get(Text key) throws IOException {
+        int lo = 0;
+        int hi = firstKeys.length - 1;
+        int candidate = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(firstKeys[mid], key) <= 0) {
+                candidate = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (candidate < 0) {
+            return -1;
+        }
+        load(candidate);
+        cursor = -1;
+        while (block.getPosition() < block.getLength()) {
+            readKey(probe);
+            long count = WritableUtils.readVLong(block);
+            int c = WritableComparator.compareBytes(probe.getBytes(), 0, probe.getLength(), key.getBytes(), 0, key.getLength());
+            if (c == 0) {
+                return count;
+            }
+            if (c > 0) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    // Sequential scan from the first record; a get() in between restarts it.
+    public boolean next(Text key, LongWritable count) throws IOException {
+        if (cursor < 0 || block.getPosition() >= block.getLength()) {
+            if (cursor + 1 >= firstKeys.length) {
+                return false;
+            }
+            cursor++;
+            load(cursor);
+        }
+        readKey(key);
+        count.set(WritableUtils.readVLong(block));
+        return true;
+    }
+
+    private void readKey(Text key) throws IOException {
+        int length = WritableUtils.readVInt(block);
+        key.set(raw, block.getPosition(), length);
+        block.skip(length);
+    }
+
+    private void load(int i) throws IOException {
+        if (loaded != i) {
+            if (stored.length < storedLengths[i]) {
+                stored = new byte[storedLengths[i]];
+            }
+            if (raw.length < rawLengths[i]) {
+                raw = new byte[rawLengths[i]];
+            }
+            in.readFully(offsets[i], stored, 0, storedLengths[i]);
+            decompressor.reset();
+            CompressionInputStream inflater =
+                    codec.createInputStream(new ByteArrayInputStream(stored, 0, storedLengths[i]), decompressor);
+            IOUtils.readFully(inflater, raw, 0, rawLengths[i]);
+            loaded = i;
+        }
+        block.reset(raw, rawLengths[i]);
+    }
+
+    private static int compare(byte[] a, Text b) {
+        return WritableComparator.compareBytes(a, 0, a.length, b.getBytes(), 0, b.getLength());
+    }
+
+    @Override
+    public void close() throws IOException {
+        CodecPool.returnDecompressor(decompressor);
+        in.close();
+    }
+
+    // CountFileReader <file> [key...]: prints the counts of the given keys, or every record.
+    public static void main(String[] args) throws IOException {
+        Configuration conf = new Configuration();
+        Path path = new Path(args[0]);
+        try (CountFileReader reader = new CountFileReader(path.getFileSystem(conf), path, conf)) {
+            Text key = new Text();
+            if (args.length == 1) {
+                LongWritable count = new LongWritable();
+                while (reader.next(key, count)) {
+                    System.out.println(key + "\t" + count);
+                }
+            }
+            for (int i = 1; i < args.length; i++) {
+                key.set(args[i]);
+                System.out.println(args[i] + "\t" + reader.get(key));
+            }
+        }
+    }
+}
+
+// CountFileOutputFormat.java
+import java.io.IOException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.io.compress.zlib.ZlibCompressor;
+import org.apache.hadoop.io.compress.zlib.ZlibFactory;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+// Writes each reducer's sorted output as a CountFileWriter file (part-NNNNN).
+public class CountFileOutputFormat extends FileOutputFormat<Text, IntWritable> {
+    public static final String ENABLED = "countfile.output";
+    public static final String SHUFFLE_COMPRESS = "shuffle.compress";
+
+    public RecordWriter<Text, IntWritable> getRecordWriter(FileSystem ignored, JobConf job, String name, Progressable progress) throws IOException {
+        Path file = FileOutputFormat.getTaskOutputPath(job, name);
+        CountFileWriter writer = new CountFileWriter(file.getFileSystem(job).create(file, progress), job);
+        return new RecordWriter<Text, IntWritable>() {
+            public void write(Text key, IntWritable value) throws IOException {
+                writer.append(key, value.get());
+            }
+
+            public void close(Reporter reporter) throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    // Used by the count runners: countfile.output=true switches them to this format, and map
+    // output is compressed unless shuffle.compress=false, with Snappy when the native library is
+    // loaded and otherwise with zlib at its fastest level.
+    public static void configure(JobConf conf) {
+        if (conf.getBoolean(ENABLED, false)) {
+            conf.setOutputFormat(CountFileOutputFormat.class);
+        }
+        if (conf.getBoolean(SHUFFLE_COMPRESS, true)) {
+            conf.setCompressMapOutput(true);
+            if (SnappyCodec.isNativeCodeLoaded()) {
+                conf.setMapOutputCompressorClass(SnappyCodec.class);
+            } else {
+                conf.setMapOutputCompressorClass(DefaultCodec.class);
+                ZlibFactory.setCompressionLevel(conf, ZlibCompressor.CompressionLevel.BEST_SPEED);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+
+import java.util.*;
+
+/**
+ * Drop-in replacement for VmAllocationPolicySimple that finds a host without trying every host
+ * in turn. Each host's available MIPS (as its VmScheduler reports it), free RAM and free
+ * bandwidth are indexed, and re-read after every allocate and deallocate:
+ *
+ * <ul>
+ * <li>a segment tree over host positions keeps the per-subtree maximum of each, so FIRST_FIT
+ * descends only into subtrees where some host could have enough MIPS, RAM and bandwidth, and
+ * finds the leftmost host that has all three;</li>
+ * <li>a TreeMap by available MIPS gives the hosts with the least (BEST_FIT) or most (WORST_FIT)
+ * MIPS left that still cover the VM. Finding the first such host is O(log n); hosts that lack
+ * RAM or bandwidth, or that the scheduler turns down, are stepped over one at a time, so a
+ * search costs O(log n) plus one step per host skipped.</li>
+ * </ul>
+ *
+ * Free PEs are not indexed, because VmSchedulerTimeShared puts several VMs on one PE while
+ * their MIPS fit; the index only rules out hosts that cannot take the VM, and Host.vmCreate,
+ * i.e. the host's VmScheduler, makes the final call as it does under VmAllocationPolicySimple.
+ * A space-shared host that has the MIPS but not the free PEs is therefore skipped there. A
+ * VmSchedulerTimeSharedOverSubscription host accepts VMs beyond its available MIPS, so it is
+ * indexed as unlimited. WORST_FIT is the default: it spreads VMs over the hosts the way
+ * VmAllocationPolicySimple does (most free PEs first), measured in MIPS.
+ */
+public class IndexedVmAllocationPolicy extends VmAllocationPolicy {
+
+    public enum Strategy { FIRST_FIT, BEST_FIT, WORST_FIT }
+
+    private final Strategy strategy;
+    private final List<Host> hosts;
+    private final Map<Host, Integer> positions = new HashMap<>();
+    private final double[] freeMips;
+    private final int[] freeRam;
+    private final long[] freeBw;
+    private final double[] treeMips;
+    private final int[] treeRam;
+    private final long[] treeBw;
+    private final int leaves;
+    private final TreeMap<Double, TreeSet<Integer>> byMips = new TreeMap<>();
+    private final Map<String, Host> vmTable = new HashMap<>();
+
+    public IndexedVmAllocationPolicy(List<? extends Host> list) {
+        this(list, Strategy.WORST_FIT);
+    }
+
+    public IndexedVmAllocationPolicy(List<? extends Host> list, Strategy strategy) {
+        super(list);
+        this.strategy = strategy;
+        this.hosts = new ArrayList<>(list);
+        int n = hosts.size();
+        freeMips = new double[n];
+        freeRam = new int[n];
+        freeBw = new long[n];
+        int size = 1;
+        while (size < Math.max(1, n)) {
+            size <<= 1;
+        }
+        leaves = size;
+        treeMips = new double[2 * size];
+        treeRam = new int[2 * size];
+        treeBw = new long[2 * size];
+        Arrays.fill(treeMips, -1);
+        Arrays.fill(treeRam, -1);
+        Arrays.fill(treeBw, -1);
+        for (int i = 0; i < n; i++) {
+            positions.put(hosts.get(i), i);
+            read(i);
+            slots(freeMips[i]).add(i);
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            pull(node);
+        }
+    }
+
+    @Override
+    public boolean allocateHostForVm(Vm vm) {
+        double mips = vm.getMips() * vm.getNumberOfPes();
+        switch (strategy) {
+            case FIRST_FIT:
+                for (int i = firstFit(0, vm); i >= 0; i = firstFit(i + 1, vm)) {
+                    if (tryCreate(vm, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            case BEST_FIT:
+                return tryHosts(vm, byMips.tailMap(mips, true));
+            default:
+                return tryHosts(vm, byMips.tailMap(mips, true).descendingMap());
+        }
+    }
+
+    @Override
+    public boolean allocateHostForVm(Vm vm, Host host) {
+        Integer i = positions.get(host);
+        return i != null && tryCreate(vm, i);
+    }
+
+    @Override
+    public List<Map<String, Object>> optimizeAllocation(List<? extends Vm> vmList) {
+        return null;
+    }
+
+    @Override
+    public void deallocateHostForVm(Vm vm) {
+        Host host = vmTable.remove(vm.getUid());
+        if (host == null) {
+            return;
+        }
+        host.vmDestroy(vm);
+        update(positions.get(host));
+    }
+
+    @Override
+    public Host getHost(Vm vm) {
+        return vmTable.get(vm.getUid());
+    }
+
+    @Override
+    public Host getHost(int vmId, int userId) {
+        return vmTable.get(Vm.getUid(userId, vmId));
+    }
+
+    /** Tries the hosts in the order of the given MIPS range, lowest position first within a MIPS value. */
+    private boolean tryHosts(Vm vm, NavigableMap<Double, TreeSet<Integer>> range) {
+        for (TreeSet<Integer> slot : range.values()) {
+            // a successful tryCreate moves the host to another slot, but the loop ends right there
+            for (int i : slot) {
+                if (freeRam[i] >= vm.getRam() && freeBw[i] >= vm.getBw() && tryCreate(vm, i)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean tryCreate(Vm vm, int i) {
+        Host host = hosts.get(i);
+        if (!host.vmCreate(vm)) {
+            return false;
+        }
+        vmTable.put(vm.getUid(), host);
+        update(i);
+        return true;
+    }
+
+    /** Re-reads host i after a VM came or went and moves it to its new place in both indexes. */
+    private void update(int i) {
+        TreeSet<Integer> old = byMips.get(freeMips[i]);
+        old.remove(i);
+        if (old.isEmpty()) {
+            byMips.remove(freeMips[i]);
+        }
+        read(i);
+        slots(freeMips[i]).add(i);
+        for (int node = (leaves + i) >> 1; node > 0; node >>= 1) {
+            pull(node);
+        }
+    }
+
+    private void read(int i) {
+        Host host = hosts.get(i);
+        VmScheduler scheduler = host.getVmScheduler();
+        freeMips[i] = scheduler instanceof VmSchedulerTimeSharedOverSubscription
+                ? Double.POSITIVE_INFINITY : scheduler.getAvailableMips();
+        freeRam[i] = host.getRamProvisioner().getAvailableRam();
+        freeBw[i] = host.getBwProvisioner().getAvailableBw();
+        treeMips[leaves + i] = freeMips[i];
+        treeRam[leaves + i] = freeRam[i];
+        treeBw[leaves + i] = freeBw[i];
+    }
+
+    private void pull(int node) {
+        treeMips[node] = Math.max(treeMips[2 * node], treeMips[2 * node + 1]);
+        treeRam[node] = Math.max(treeRam[2 * node], treeRam[2 * node + 1]);
+        treeBw[node] = Math.max(treeBw[2 * node], treeBw[2 * node + 1]);
+    }
+
+    private TreeSet<Integer> slots(double mips) {
+        TreeSet<Integer> slot = byMips.get(mips);
+        if (slot == null) {
+            slot = new TreeSet<>();
+            byMips.put(mips, slot);
+        }
+        return slot;
+    }
+
+    /** Leftmost position >= from whose host has the MIPS, RAM and bandwidth for the VM, or -1. */
+    private int firstFit(int from, Vm vm) {
+        if (from >= hosts.size()) {
+            return -1;
+        }
+        return firstFit(1, 0, leaves, from, vm.getMips() * vm.getNumberOfPes(), vm.getRam(), vm.getBw());
+    }
+
+    private int firstFit(int node, int lo, int hi, int from, double mips, int ram, long bw) {
+        // the maxima may come from different hosts, so a subtree that passes can still be empty
+        if (hi <= from || treeMips[node] < mips || treeRam[node] < ram || treeBw[node] < bw) {
+            return -1;
+        }
+        if (hi - lo == 1) {
+            return lo;
+        }
+        int mid = (lo + hi) >>> 1;
+        int left = firstFit(2 * node, lo, mid, from, mips, ram, bw);
+        return left >= 0 ? left : firstFit(2 * node + 1, mid, hi, from, mips, ram, bw);
+    }
+}
@@ -0,0 +1,190 @@
+// HotPathCounter.java
+// Custom counters of the WordCount / CharCount jobs. Records and bytes in and out, distinct keys
+// (REDUCE_INPUT_GROUPS) and the combiner input/output already come from Hadoop's TaskCounter.
+public enum HotPathCounter {
+    SAMPLED_RECORDS,
+    TOKENIZE_NANOS,
+    COLLECT_NANOS
+}
+
+// MapTimer.java
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+// Splits the mapper's time between tokenizing and OutputCollector.collect on one record out of
+// every metrics.sample.every, so the clock is read on a tiny fraction of records.
+public class MapTimer {
+    private final long every;
+    private long records;
+    private boolean active;
+    private long start;
+    private long collectStart;
+    private long collectNanos;
+
+    public MapTimer(JobConf job) {
+        every = Math.max(1, job.getLong(JobMetrics.SAMPLE_EVERY, 1024));
+    }
+
+    public void startRecord() {
+        active = ++records % every == 0;
+        if (active) {
+            collectNanos = 0;
+            start = System.nanoTime();
+        }
+    }
+
+    public void startCollect() {
+        if (active) {
+            collectStart = System.nanoTime();
+        }
+    }
+
+    public void endCollect() {
+        if (active) {
+            collectNanos += System.nanoTime() - collectStart;
+        }
+    }
+
+    public void endRecord(Reporter reporter) {
+        if (!active) {
+            return;
+        }
+        long total = System.nanoTime() - start;
+        reporter.incrCounter(HotPathCounter.SAMPLED_RECORDS, 1);
+        reporter.incrCounter(HotPathCounter.TOKENIZE_NANOS, total - collectNanos);
+        reporter.incrCounter(HotPathCounter.COLLECT_NANOS, collectNanos);
+        active = false;
+    }
+}
+
+// CountersReporter.java
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+
+// Reporter stand-in for code that runs mappers and reducers outside a task; not thread-safe, so
+// use one per thread and merge with Counters.incrAllCounters.
+public class CountersReporter implements Reporter {
+    private final Counters counters = new Counters();
+
+    public Counters getCounters() {
+        return counters;
+    }
+
+    public void setStatus(String status) {
+    }
+
+    public void progress() {
+    }
+
+    public float getProgress() {
+        return 0;
+    }
+
+    public Counters.Counter getCounter(Enum<?> name) {
+        return counters.findCounter(name);
+    }
+
+    public Counters.Counter getCounter(String group, String name) {
+        return counters.findCounter(group, name);
+    }
+
+    public void incrCounter(Enum<?> key, long amount) {
+        counters.incrCounter(key, amount);
+    }
+
+    public void incrCounter(String group, String counter, long amount) {
+        counters.incrCounter(group, counter, amount);
+    }
+
+    public InputSplit getInputSplit() {
+        throw new UnsupportedOperationException("No input split outside a map task");
+    }
+}
+
+// JobMetrics.java
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapreduce.TaskCounter;
+
+public class JobMetrics {
+    public static final String JSON = "metrics.json";
+    public static final String SAMPLE_EVERY = "metrics.sample.every";
+
+    private static final String[] BUCKETS = new String[63];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            long low = 1L << i;
+            BUCKETS[i] = i == 0 ? "1" : low + "-" + (low + (low - 1));
+        }
+    }
+
+    // Power-of-two histogram of value-list lengths, kept apart for combiner (map task) and reducer calls.
+    public static void recordValueList(Reporter reporter, boolean mapSide, long length) {
+        if (length > 0) {
+            reporter.incrCounter(mapSide ? "Combiner value-list length" : "Reducer value-list length",
+                    BUCKETS[63 - Long.numberOfLeadingZeros(length)], 1);
+        }
+    }
+
+    public static boolean isMapSide(JobConf job) {
+        return job.getBoolean("mapreduce.task.ismap", false);
+    }
+
+    // Writes all counters plus a few derived ratios as JSON to the path in metrics.json, if set.
+    public static void dump(JobConf conf, Counters counters, long wallNanos) throws IOException {
+        String location = conf.get(JSON);
+        if (location == null) {
+            return;
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"job\": ").append(quote(conf.getJobName()));
+        json.append(",\n  \"wallMillis\": ").append(wallNanos / 1000000);
+        json.append(",\n  \"counters\": {");
+        String groupSeparator = "\n";
+        for (Counters.Group group : counters) {
+            json.append(groupSeparator).append("    ").append(quote(group.getDisplayName())).append(": {");
+            String separator = "";
+            for (Counters.Counter counter : group) {
+                json.append(separator).append(quote(counter.getDisplayName())).append(": ").append(counter.getValue());
+                separator = ", ";
+            }
+            json.append('}');
+            groupSeparator = ",\n";
+        }
+        json.append("\n  },\n  \"derived\": {");
+        long combineIn = counters.getCounter(TaskCounter.COMBINE_INPUT_RECORDS);
+        long combineOut = counters.getCounter(TaskCounter.COMBINE_OUTPUT_RECORDS);
+        long sampled = counters.getCounter(HotPathCounter.SAMPLED_RECORDS);
+        json.append("\n    \"combinerReductionRatio\": ").append(combineOut == 0 ? 0 : (double) combineIn / combineOut);
+        json.append(",\n    \"tokenizeNanosPerRecord\": ").append(sampled == 0 ? 0 : counters.getCounter(HotPathCounter.TOKENIZE_NANOS) / sampled);
+        json.append(",\n    \"collectNanosPerRecord\": ").append(sampled == 0 ? 0 : counters.getCounter(HotPathCounter.COLLECT_NANOS) / sampled);
+        json.append("\n  }\n}\n");
+
+        Path path = new Path(location);
+        try (OutputStream out = path.getFileSystem(conf).create(path, true)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,312 @@
+// MapReduceBenchmark.java
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Drives WC_Mapper / WC_Reducer directly, without a job, through in-memory collectors. The classes
+// are loaded by name (JMH needs a named package, the jobs live in the default one), so the same
+// suite measures WordCount.java or CharacterCount.java depending on which one is compiled alongside
+// it with the jmh-generator-annprocess processor. One operation is a full pass over the corpus; the
+// records and bytes counters are reported per second and main() adds the GC profiler for allocation
+// rates. Task instances are created outside the measurement, fresh for every operation. `conf` holds
+// comma-separated key=value job settings, e.g. "wordcount.tokenizer=string"; the settings only mean
+// something to one of the two jobs, so main() sweeps WORDCOUNT_CONFS or CHARCOUNT_CONFS depending on
+// which one is compiled in (pass -p conf=... when running the JMH jar directly).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapReduceBenchmark {
+    @Param({"prose", "code", "cjk", "skewed"})
+    public String corpus;
+
+    static final String[] WORDCOUNT_CONFS = {"", "wordcount.tokenizer=string", "wordcount.inmapper=true"};
+    static final String[] CHARCOUNT_CONFS = {"", "charcount.mode=split"};
+
+    @Param({""})
+    public String conf;
+
+    @Param({"WC_Mapper"})
+    public String mapperClass;
+
+    @Param({"WC_Reducer"})
+    public String reducerClass;
+
+    @Param({"20000"})
+    public int lines;
+
+    private JobConf job;
+    private Class<?> mapperType;
+    private Class<?> reducerType;
+    private Mapper<LongWritable, Text, Text, IntWritable> mapper;
+    private Reducer<Text, IntWritable, Text, IntWritable> reducer;
+    private Text[] input;
+    private long inputBytes;
+    private Text[] groupKeys;
+    private IntWritable[][] groupValues;
+    private long groupRecords;
+    private long groupBytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long records;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            records = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ClassNotFoundException {
+        mapperType = Class.forName(mapperClass);
+        reducerType = Class.forName(reducerClass);
+        job = new JobConf();
+        for (String setting : conf.split(",")) {
+            int eq = setting.indexOf('=');
+            if (eq > 0) {
+                job.set(setting.substring(0, eq).trim(), setting.substring(eq + 1).trim());
+            }
+        }
+        input = Corpora.generate(corpus, lines, 42);
+        for (Text line : input) {
+            inputBytes += line.getLength();
+        }
+
+        // reducer input: the mapper output of the corpus, grouped and sorted like a shuffle would
+        TreeMap<Text, List<IntWritable>> groups = new TreeMap<>();
+        newTasks();
+        runMapper((k, v) -> groups.computeIfAbsent(new Text(k), x -> new ArrayList<>()).add(new IntWritable(v.get())));
+        groupKeys = groups.keySet().toArray(new Text[0]);
+        groupValues = new IntWritable[groupKeys.length][];
+        int i = 0;
+        for (List<IntWritable> values : groups.values()) {
+            // the bytes the reducer reads: the key once per group, a 4-byte IntWritable per value
+            groupBytes += groupKeys[i].getLength() + 4L * values.size();
+            groupValues[i++] = values.toArray(new IntWritable[0]);
+            groupRecords += values.size();
+        }
+    }
+
+    // Mappers and reducers keep state until close(), so every operation gets new ones.
+    @Setup(Level.Invocation)
+    @SuppressWarnings("unchecked")
+    public void newTasks() {
+        mapper = (Mapper<LongWritable, Text, Text, IntWritable>) ReflectionUtils.newInstance(mapperType, job);
+        reducer = (Reducer<Text, IntWritable, Text, IntWritable>) ReflectionUtils.newInstance(reducerType, job);
+    }
+
+    @Benchmark
+    public void map(Throughput counters, Blackhole bh) throws IOException {
+        counters.records += input.length;
+        counters.bytes += inputBytes;
+        runMapper((k, v) -> {
+            bh.consume(k);
+            bh.consume(v);
+        });
+    }
+
+    @Benchmark
+    public void reduce(Throughput counters, Blackhole bh) throws IOException {
+        OutputCollector<Text, IntWritable> collector = (k, v) -> {
+            bh.consume(k);
+            bh.consume(v);
+        };
+        for (int i = 0; i < groupKeys.length; i++) {
+            reducer.reduce(groupKeys[i], Arrays.asList(groupValues[i]).iterator(), collector, Reporter.NULL);
+        }
+        reducer.close();
+        counters.records += groupRecords;
+        counters.bytes += groupBytes;
+    }
+
+    private void runMapper(OutputCollector<Text, IntWritable> collector) throws IOException {
+        LongWritable offset = new LongWritable();
+        for (Text line : input) {
+            mapper.map(offset, line, collector, Reporter.NULL);
+            offset.set(offset.get() + line.getLength() + 1);
+        }
+        mapper.close();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String[] confs;
+        try {
+            // only CharacterCount.java has it
+            Class.forName("CodePointCounter");
+            confs = CHARCOUNT_CONFS;
+        } catch (ClassNotFoundException e) {
+            confs = WORDCOUNT_CONFS;
+        }
+        new Runner(new OptionsBuilder()
+                .include(MapReduceBenchmark.class.getSimpleName())
+                .param("conf", confs)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
+
+// Corpora.java
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.io.Text;
+
+// Deterministic synthetic inputs for MapReduceBenchmark.
+public class Corpora {
+    private static final String[] SYLLABLES = {
+            "the", "an", "of", "in", "re", "con", "ter", "ment", "ing", "ed", "ly", "er", "st", "pro", "ab", "ous", "tion", "al"};
+    private static final String[] CODE = {
+            "public", "static", "void", "int", "return", "if", "else", "for", "new", "final", "this", "null", "{", "}", "(", ")",
+            ";", "=", "==", "+", "i++", "String", "List<Text>", "value.getBytes()", "0", "1", "//", "throws", "IOException"};
+
+    public static Text[] generate(String corpus, int lines, long seed) {
+        Random random = new Random(seed);
+        switch (corpus) {
+            case "prose":
+                return prose(random, lines);
+            case "code":
+                return code(random, lines);
+            case "cjk":
+                return cjk(random, lines);
+            case "skewed":
+                return skewed(random, lines);
+            default:
+                throw new IllegalArgumentException("Unknown corpus " + corpus);
+        }
+    }
+
+    // English-like words from a 20k vocabulary with Zipf(1.0) frequencies, 8-20 words per sentence.
+    private static Text[] prose(Random random, int lines) {
+        String[] vocabulary = new String[20000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int s = 0, n = 1 + Integer.numberOfTrailingZeros(i + 1) % 3; s < n; s++) {
+                word.append(SYLLABLES[(i * 7 + s * 13) % SYLLABLES.length]);
+            }
+            vocabulary[i] = word.append(i % 97 == 0 ? "" : Integer.toString(i, 36)).toString();
+        }
+        Zipf zipf = new Zipf(vocabulary.length, 1.0);
+        Text[] text = new Text[lines];
+        for (int l = 0; l < lines; l++) {
+            StringBuilder line = new StringBuilder();
+            for (int w = 0, n = 8 + random.nextInt(13); w < n; w++) {
+                line.append(w == 0 ? "" : " ").append(vocabulary[zipf.next(random)]);
+            }
+            text[l] = new Text(line.append('.').toString());
+        }
+        return text;
+    }
+
+    // Indented, symbol-heavy lines with many short tokens.
+    private static Text[] code(Random random, int lines) {
+        Text[] text = new Text[lines];
+        for (int l = 0; l < lines; l++) {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0, indent = random.nextInt(4); i < indent; i++) {
+                line.append("    ");
+            }
+            for (int t = 0, n = 2 + random.nextInt(10); t < n; t++) {
+                line.append(CODE[random.nextInt(CODE.length)]);
+                line.append(random.nextInt(3) == 0 ? "\t" : " ");
+                if (random.nextInt(5) == 0) {
+                    line.append("var").append(random.nextInt(500)).append(' ');
+                }
+            }
+            text[l] = new Text(line.toString());
+        }
+        return text;
+    }
+
+    // CJK ideographs, mostly without spaces (long tokens), with some supplementary-plane characters.
+    private static Text[] cjk(Random random, int lines) {
+        Text[] text = new Text[lines];
+        for (int l = 0; l < lines; l++) {
+            StringBuilder line = new StringBuilder();
+            for (int c = 0, n = 20 + random.nextInt(40); c < n; c++) {
+                if (random.nextInt(12) == 0) {
+                    line.append(' ');
+                } else if (random.nextInt(50) == 0) {
+                    line.appendCodePoint(0x20000 + random.nextInt(2000));
+                } else {
+                    line.appendCodePoint(0x4e00 + (int) Math.min(0x51ff, Math.abs(random.nextGaussian()) * 800));
+                }
+            }
+            text[l] = new Text(line.toString());
+        }
+        return text;
+    }
+
+    // Zipf(1.5) over a 1M-word vocabulary: a handful of keys dominate, the tail is huge.
+    private static Text[] skewed(Random random, int lines) {
+        Zipf zipf = new Zipf(1000000, 1.5);
+        Text[] text = new Text[lines];
+        for (int l = 0; l < lines; l++) {
+            StringBuilder line = new StringBuilder();
+            for (int w = 0, n = 5 + random.nextInt(20); w < n; w++) {
+                line.append(w == 0 ? "" : " ").append('k').append(zipf.next(random));
+            }
+            text[l] = new Text(line.toString());
+        }
+        return text;
+    }
+
+    private static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            int i = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+        }
+    }
+}
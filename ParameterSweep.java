@@ -0,0 +1,237 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a grid of ScenarioGenerator simulations in parallel and collects one row per point.
+ * CloudSim keeps its state in statics, so every point runs in its own child JVM; up to
+ * sweep.parallelism (default: all cores) children run at once.
+ *
+ * The sweep file is a scenario spec plus "sweep.&lt;key&gt; = v1 | v2 | ..." lines; every
+ * combination of the listed values is one point, e.g.
+ *
+ * <pre>
+ * sweep.vm.mips = const(250) | const(500) | uniform(250, 1000)
+ * sweep.vm.cloudletScheduler = timeShared | spaceShared
+ * sweep.host.vmScheduler = timeShared | spaceShared
+ * sweep.broker = default
+ * sweep.autoscale.targetResponse = 50 | 100 | 200     (with broker = autoscaling: vmHours and vmUtilization vs p95Turnaround)
+ * sweep.cloudlet.burstSize = 1 | choice(1:0.9, 100:0.1)   (with cloudlet.interarrival set: steady vs bursty load)
+ * sweep.jvm.options = -Xmx2g
+ * </pre>
+ *
+ * Usage: ParameterSweep &lt;sweep.properties&gt; &lt;results.csv&gt;
+ */
+public class ParameterSweep {
+
+    private static final String SWEEP = "sweep.";
+    private static final String[] METRICS = {
+            "cloudlets", "finished", "makespan", "throughput", "meanTurnaround", "p95Turnaround",
+            "meanWait", "p95Wait", "cost", "vmHours", "vmUtilization", "wallMillis"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && "--point".equals(args[0])) {
+            runPoint(args[1], args[2]);
+            return;
+        }
+        if (args.length != 2) {
+            System.err.println("Usage: ParameterSweep <sweep.properties> <results.csv>");
+            System.exit(2);
+        }
+
+        Properties base = new Properties();
+        try (Reader in = new FileReader(args[0])) {
+            base.load(in);
+        }
+        List<String> keys = new ArrayList<>();
+        for (String name : base.stringPropertyNames()) {
+            if (name.startsWith(SWEEP) && !name.startsWith(SWEEP + "jvm.") && !name.equals(SWEEP + "parallelism")) {
+                keys.add(name.substring(SWEEP.length()));
+            }
+        }
+        Collections.sort(keys);
+        List<Map<String, String>> points = new ArrayList<>();
+        expand(base, keys, 0, new LinkedHashMap<String, String>(), points);
+
+        int parallelism = Integer.parseInt(base.getProperty(SWEEP + "parallelism",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        String jvmOptions = base.getProperty(SWEEP + "jvm.options", "");
+        File workDir = createWorkDir();
+        Log.printLine("Running " + points.size() + " points on " + parallelism + " JVMs, work files in " + workDir);
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        List<Future<Properties>> results = new ArrayList<>();
+        for (int i = 0; i < points.size(); i++) {
+            Properties spec = new Properties();
+            for (String name : base.stringPropertyNames()) {
+                if (!name.startsWith(SWEEP)) {
+                    spec.setProperty(name, base.getProperty(name));
+                }
+            }
+            for (Map.Entry<String, String> value : points.get(i).entrySet()) {
+                spec.setProperty(value.getKey(), value.getValue());
+            }
+            results.add(pool.submit(new PointRun(spec, new File(workDir, "point-" + i), jvmOptions)));
+        }
+        pool.shutdown();
+
+        try (PrintWriter csv = new PrintWriter(new FileWriter(args[1]))) {
+            List<String> header = new ArrayList<>(keys);
+            header.addAll(Arrays.asList(METRICS));
+            header.add("status");
+            csv.println(csvRow(header));
+            for (int i = 0; i < points.size(); i++) {
+                List<String> row = new ArrayList<>(points.get(i).values());
+                String status;
+                Properties result = null;
+                try {
+                    result = results.get(i).get();
+                    status = "ok";
+                } catch (ExecutionException e) {
+                    status = String.valueOf(e.getCause().getMessage());
+                }
+                for (String metric : METRICS) {
+                    row.add(result == null ? "" : result.getProperty(metric, ""));
+                }
+                row.add(status);
+                csv.println(csvRow(row));
+            }
+        }
+        Log.printLine("Sweep finished, results in " + args[1]);
+    }
+
+    private static void expand(Properties base, List<String> keys, int index, Map<String, String> current,
+                               List<Map<String, String>> points) {
+        if (index == keys.size()) {
+            points.add(new LinkedHashMap<>(current));
+            return;
+        }
+        String key = keys.get(index);
+        for (String value : base.getProperty(SWEEP + key).split("\\|")) {
+            current.put(key, value.trim());
+            expand(base, keys, index + 1, current, points);
+        }
+        current.remove(key);
+    }
+
+    private static File createWorkDir() throws IOException {
+        File dir = File.createTempFile("sweep", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    private static String csvRow(List<String> fields) {
+        StringBuilder row = new StringBuilder();
+        for (String field : fields) {
+            if (row.length() > 0) {
+                row.append(',');
+            }
+            if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
+                row.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                row.append(field);
+            }
+        }
+        return row.toString();
+    }
+
+    /** One point: writes its spec, runs a child JVM on it and reads back the metrics it wrote. */
+    private static class PointRun implements Callable<Properties> {
+        private final Properties spec;
+        private final File prefix;
+        private final String jvmOptions;
+
+        PointRun(Properties spec, File prefix, String jvmOptions) {
+            this.spec = spec;
+            this.prefix = prefix;
+            this.jvmOptions = jvmOptions;
+        }
+
+        @Override
+        public Properties call() throws Exception {
+            File specFile = new File(prefix.getPath() + ".properties");
+            File resultFile = new File(prefix.getPath() + ".result");
+            File logFile = new File(prefix.getPath() + ".log");
+            try (Writer out = new FileWriter(specFile)) {
+                spec.store(out, null);
+            }
+
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            for (String option : jvmOptions.trim().split("\\s+")) {
+                if (!option.isEmpty()) {
+                    command.add(option);
+                }
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ParameterSweep.class.getName());
+            command.add("--point");
+            command.add(specFile.getPath());
+            command.add(resultFile.getPath());
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(logFile)
+                    .start();
+            int exit = process.waitFor();
+            if (exit != 0 || !resultFile.exists()) {
+                throw new IOException("exit " + exit + ", see " + logFile);
+            }
+
+            Properties result = new Properties();
+            try (Reader in = new FileReader(resultFile)) {
+                result.load(in);
+            }
+            return result;
+        }
+    }
+
+    /** Child side: one simulation of the spec, summarised into the result file. */
+    private static void runPoint(String specFile, String resultFile) throws Exception {
+        long started = System.currentTimeMillis();
+        Log.disable();
+        ScenarioGenerator scenario = ScenarioGenerator.load(specFile);
+        CloudSim.init(1, Calendar.getInstance(), false);
+        for (int i = 0; i < scenario.getDatacenterCount(); i++) {
+            scenario.createDatacenter("Datacenter_" + i);
+        }
+        ResultStreamingBroker broker = scenario.createBroker("Broker");
+        CloudletResultSink sink = new CloudletResultSink();
+        broker.setResultSink(sink);
+        broker.setRetainReceived(false);
+        broker.submitVmList(scenario.createVms(broker.getId()));
+        scenario.submitCloudlets(broker);
+
+        CloudSim.startSimulation();
+        CloudSim.stopSimulation();
+
+        Properties result = new Properties();
+        result.setProperty("cloudlets", Integer.toString(scenario.getCloudletCount()));
+        result.setProperty("finished", Long.toString(sink.getSucceeded()));
+        result.setProperty("makespan", Double.toString(sink.getMakespan()));
+        result.setProperty("throughput", Double.toString(sink.getThroughput()));
+        result.setProperty("meanTurnaround", Double.toString(sink.getMeanResponse()));
+        result.setProperty("p95Turnaround", Double.toString(sink.getResponseQuantile(0.95)));
+        result.setProperty("meanWait", Double.toString(sink.getMeanWait()));
+        result.setProperty("p95Wait", Double.toString(sink.getWaitQuantile(0.95)));
+        result.setProperty("cost", Double.toString(sink.getCost()));
+        if (broker instanceof AutoscalingBroker) {
+            // end-to-end response, including the time spent queued at the broker
+            AutoscalingBroker autoscaling = (AutoscalingBroker) broker;
+            result.setProperty("vmHours", Double.toString(autoscaling.getVmHours()));
+            result.setProperty("vmUtilization", Double.toString(autoscaling.getUtilization()));
+            result.setProperty("p95Turnaround", Double.toString(autoscaling.getResponseQuantile(0.95)));
+        }
+        result.setProperty("wallMillis", Long.toString(System.currentTimeMillis() - started));
+        try (Writer out = new FileWriter(resultFile)) {
+            result.store(out, null);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.core.CloudSimTags;
+import org.cloudbus.cloudsim.core.SimEvent;
+
+import java.util.*;
+
+/**
+ * Dispatches cloudlets from a heap ordered by priority class (Cloudlet.getClassType(), lower is
+ * more urgent), then length, then id. Aging is folded into a static key, class + agingRate *
+ * arrivalTime: every waiting cloudlet gains priority at the same rate, so the order of those
+ * already queued never changes, and a cloudlet of class c overtakes newly arriving class-0 work
+ * after c / agingRate seconds. Insertion and dispatch are O(log n), with no re-sorting.
+ *
+ * With maxInFlightPerVm > 0 at most that many cloudlets run on each VM and the rest wait in the
+ * heap, which is where priorities and aging matter; 0 dispatches everything at once in priority
+ * order. Cloudlets bound to a VM bypass the queue and do not take a slot; like DatacenterBroker,
+ * the broker postpones those whose VM was not created. Later arrivals go through
+ * submitCloudletAt().
+ */
+public class PriorityDatacenterBroker extends ResultStreamingBroker {
+
+    private final double agingRate;
+    private final int maxInFlightPerVm;
+    private final PriorityQueue<QueuedCloudlet> queue = new PriorityQueue<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private final Set<Integer> holdingSlot = new HashSet<>();
+    private boolean vmsReady;
+    private int nextVm;
+    private long arrivals;
+
+    public PriorityDatacenterBroker(String name) throws Exception {
+        this(name, 0, 0);
+    }
+
+    public PriorityDatacenterBroker(String name, double agingRate, int maxInFlightPerVm) throws Exception {
+        super(name);
+        this.agingRate = agingRate;
+        this.maxInFlightPerVm = maxInFlightPerVm;
+    }
+
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    @Override
+    protected void submitCloudlets() {
+        if (!vmsReady) {
+            vmsReady = true;
+            if (maxInFlightPerVm > 0) {
+                for (Vm vm : getVmsCreatedList()) {
+                    for (int i = 0; i < maxInFlightPerVm; i++) {
+                        freeSlots.add(vm.getId());
+                    }
+                }
+            }
+        }
+        List<Cloudlet> cloudlets = new ArrayList<>(getCloudletList());
+        getCloudletList().clear();
+        for (Cloudlet cloudlet : cloudlets) {
+            enqueue(cloudlet);
+        }
+        dispatch();
+    }
+
+    @Override
+    protected void cloudletArrived(Cloudlet cloudlet) {
+        if (vmsReady) {
+            enqueue(cloudlet);
+            dispatch();
+        } else {
+            getCloudletList().add(cloudlet);
+        }
+    }
+
+    @Override
+    protected void processCloudletReturn(SimEvent ev) {
+        Cloudlet cloudlet = (Cloudlet) ev.getData();
+        record(cloudlet);
+        Log.printLine(CloudSim.clock() + ": " + getName() + ": Cloudlet " + cloudlet.getCloudletId() + " received");
+        cloudletsSubmitted--;
+        if (holdingSlot.remove(cloudlet.getCloudletId())) {
+            freeSlots.add(cloudlet.getVmId());
+        }
+        dispatch();
+        if (!queue.isEmpty() || getPendingArrivals() > 0 || cloudletsSubmitted > 0) {
+            return;
+        }
+        if (getCloudletList().isEmpty()) {
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": All Cloudlets executed. Finishing...");
+            clearDatacenters();
+            finishExecution();
+        } else {
+            // only cloudlets bound to VMs that were never created are left; give the datacenters another try
+            clearDatacenters();
+            createVmsInDatacenter(0);
+        }
+    }
+
+    private void enqueue(Cloudlet cloudlet) {
+        if (cloudlet.getVmId() != -1) {
+            if (getVmsToDatacentersMap().containsKey(cloudlet.getVmId())) {
+                send(cloudlet, cloudlet.getVmId());
+            } else {
+                Log.printLine(CloudSim.clock() + ": " + getName() + ": Postponing execution of the cloudlet "
+                        + cloudlet.getCloudletId() + ": bound VM not available");
+                getCloudletList().add(cloudlet);
+            }
+            return;
+        }
+        queue.add(new QueuedCloudlet(cloudlet, cloudlet.getClassType() + agingRate * CloudSim.clock(), arrivals++));
+    }
+
+    private void dispatch() {
+        List<Vm> vms = getVmsCreatedList();
+        if (vms.isEmpty()) {
+            return;
+        }
+        while (!queue.isEmpty() && (maxInFlightPerVm == 0 || !freeSlots.isEmpty())) {
+            Cloudlet cloudlet = queue.poll().cloudlet;
+            int vmId;
+            if (maxInFlightPerVm > 0) {
+                vmId = freeSlots.poll();
+                holdingSlot.add(cloudlet.getCloudletId());
+            } else {
+                vmId = vms.get(nextVm).getId();
+                nextVm = (nextVm + 1) % vms.size();
+            }
+            send(cloudlet, vmId);
+        }
+    }
+
+    private void send(Cloudlet cloudlet, int vmId) {
+        Log.printLine(CloudSim.clock() + ": " + getName() + ": Sending cloudlet " + cloudlet.getCloudletId() + " to VM #" + vmId);
+        cloudlet.setVmId(vmId);
+        sendNow(getVmsToDatacentersMap().get(vmId), CloudSimTags.CLOUDLET_SUBMIT, cloudlet);
+        cloudletsSubmitted++;
+        if (isRetainReceived()) {
+            getCloudletSubmittedList().add(cloudlet);
+        }
+    }
+
+    private static final class QueuedCloudlet implements Comparable<QueuedCloudlet> {
+        final Cloudlet cloudlet;
+        final double key;
+        final long sequence;
+
+        QueuedCloudlet(Cloudlet cloudlet, double key, long sequence) {
+            this.cloudlet = cloudlet;
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(QueuedCloudlet other) {
+            int c = Double.compare(key, other.key);
+            if (c == 0) {
+                c = Long.compare(cloudlet.getCloudletLength(), other.cloudlet.getCloudletLength()); // Lower length = higher priority
+            }
+            if (c == 0) {
+                c = Integer.compare(cloudlet.getCloudletId(), other.cloudlet.getCloudletId());
+            }
+            return c == 0 ? Long.compare(sequence, other.sequence) : c;
+        }
+    }
+}
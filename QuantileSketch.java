@@ -0,0 +1,111 @@
+package org.cloudbus.cloudsim.examples;
+
+/**
+ * Relative-error quantile sketch in the style of DDSketch: a value v is counted in bucket
+ * ceil(log_gamma(v)) with gamma = (1 + alpha) / (1 - alpha), so any reported quantile is within
+ * alpha (relative) of a value that was actually added. Values below MIN_VALUE, including zero
+ * waits, go to a separate zero bucket. At most maxBuckets buckets are kept; beyond that the
+ * lowest ones are merged, which only loses accuracy for the smallest quantiles.
+ */
+class QuantileSketch {
+
+    private static final double MIN_VALUE = 1e-9;
+
+    private final double gamma;
+    private final double logGamma;
+    private final int maxBuckets;
+    private long[] counts = new long[64];
+    private int offset;
+    private int lo = Integer.MAX_VALUE;
+    private int hi = Integer.MIN_VALUE;
+    private long zeros;
+    private long total;
+
+    QuantileSketch(double alpha) {
+        this(alpha, 2048);
+    }
+
+    QuantileSketch(double alpha, int maxBuckets) {
+        this.gamma = (1 + alpha) / (1 - alpha);
+        this.logGamma = Math.log(gamma);
+        this.maxBuckets = maxBuckets;
+    }
+
+    void add(double value) {
+        total++;
+        if (value < MIN_VALUE) {
+            zeros++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        if (total - zeros == 1) {
+            offset = index - counts.length / 2;
+            lo = hi = index;
+        } else if (index < lo || index > hi) {
+            if (Math.max(hi, index) - Math.min(lo, index) >= maxBuckets) {
+                if (index < lo) {
+                    index = lo;
+                } else {
+                    collapse(index - maxBuckets + 1);
+                }
+            }
+            grow(index);
+            lo = Math.min(lo, index);
+            hi = Math.max(hi, index);
+        }
+        counts[index - offset]++;
+    }
+
+    long count() {
+        return total;
+    }
+
+    /** Value at quantile q (0..1), or 0 if nothing was added. */
+    double quantile(double q) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.floor(q * (total - 1));
+        if (rank < zeros) {
+            return 0;
+        }
+        long seen = zeros;
+        for (int index = lo; index <= hi; index++) {
+            seen += counts[index - offset];
+            if (seen > rank) {
+                // midpoint of (gamma^(i-1), gamma^i] in relative terms
+                return 2 * Math.pow(gamma, index) / (gamma + 1);
+            }
+        }
+        return 2 * Math.pow(gamma, hi) / (gamma + 1);
+    }
+
+    /** Folds every bucket below newLo into newLo. */
+    private void collapse(int newLo) {
+        long folded = 0;
+        for (int index = lo; index < newLo && index <= hi; index++) {
+            folded += counts[index - offset];
+            counts[index - offset] = 0;
+        }
+        if (newLo > hi) {
+            // everything folds into one bucket; recentre so the new range fits
+            offset = newLo - counts.length / 2;
+            hi = newLo;
+        }
+        lo = newLo;
+        counts[lo - offset] += folded;
+    }
+
+    private void grow(int index) {
+        int from = Math.min(lo, index);
+        int to = Math.max(hi, index);
+        if (from - offset >= 0 && to - offset < counts.length) {
+            return;
+        }
+        long[] grown = new long[Math.max(counts.length * 2, to - from + 1 + 64)];
+        int newOffset = from - (grown.length - (to - from + 1)) / 2;
+        System.arraycopy(counts, lo - offset, grown, lo - newOffset, hi - lo + 1);
+        counts = grown;
+        offset = newOffset;
+    }
+}
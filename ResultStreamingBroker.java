@@ -0,0 +1,194 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.core.CloudSimTags;
+import org.cloudbus.cloudsim.core.SimEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DatacenterBroker that hands every returned cloudlet to a {@link CloudletResultSink} as it
+ * arrives. With setRetainReceived(false) neither the received nor the submitted list is kept,
+ * so a million-cloudlet run holds only the sink's aggregates and the cloudlets in flight. Without a sink it behaves like DatacenterBroker.
+ * Brokers that override processCloudletReturn call {@link #record(Cloudlet)} instead of adding
+ * to getCloudletReceivedList() themselves.
+ *
+ * Cloudlets can also arrive over time through {@link #submitCloudletAt(Cloudlet, double)}. An
+ * arrival before the VMs are up joins the cloudlet list; a later one is submitted on its own,
+ * round robin over the created VMs unless it is bound. Brokers that queue cloudlets themselves
+ * override {@link #cloudletArrived(Cloudlet)}, and count {@link #getPendingArrivals()} as
+ * outstanding work before they finish. {@link #submitArrivals(ArrivalStream)} does the same for
+ * a stream, taking the next cloudlet only when the previous one arrives, so cloudlets that
+ * have not arrived yet are never built.
+ */
+public class ResultStreamingBroker extends DatacenterBroker {
+
+    private static final int CLOUDLET_ARRIVAL = 46001;
+    private static final int STREAM_ARRIVAL = 46002;
+
+    /** Cloudlets in arrival order, each with its arrival time. */
+    public interface ArrivalStream {
+        /** The next cloudlet, or null when there are no more. */
+        Cloudlet next();
+
+        /** Simulated time at which the cloudlet last returned by next() arrives. */
+        double arrivalTime();
+    }
+
+    private CloudletResultSink sink;
+    private boolean retainReceived = true;
+    private boolean finished;
+    private boolean released;
+    private int pendingArrivals;
+    private int nextVm;
+    private ArrivalStream stream;
+
+    public ResultStreamingBroker(String name) throws Exception {
+        super(name);
+    }
+
+    public void setResultSink(CloudletResultSink sink) {
+        this.sink = sink;
+    }
+
+    public CloudletResultSink getResultSink() {
+        return sink;
+    }
+
+    public void setRetainReceived(boolean retainReceived) {
+        this.retainReceived = retainReceived;
+    }
+
+    /** True once the broker has sent its end of simulation, i.e. all its cloudlets are back. */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /** Submits a cloudlet that arrives delay seconds from now. */
+    public void submitCloudletAt(Cloudlet cloudlet, double delay) {
+        pendingArrivals++;
+        schedule(getId(), delay, CLOUDLET_ARRIVAL, cloudlet);
+    }
+
+    /** Submits every cloudlet of the stream at its arrival time, building one ahead at a time. */
+    public void submitArrivals(ArrivalStream arrivals) {
+        stream = arrivals;
+        scheduleFromStream();
+    }
+
+    private void scheduleFromStream() {
+        Cloudlet cloudlet = stream.next();
+        if (cloudlet == null) {
+            stream = null;
+            return;
+        }
+        pendingArrivals++;
+        schedule(getId(), Math.max(0, stream.arrivalTime() - CloudSim.clock()), STREAM_ARRIVAL, cloudlet);
+    }
+
+    /** Cloudlets given to submitCloudletAt or submitArrivals that have not arrived yet. */
+    protected int getPendingArrivals() {
+        return pendingArrivals;
+    }
+
+    /** Handles a cloudlet given to submitCloudletAt or submitArrivals when its arrival time comes. */
+    protected void cloudletArrived(Cloudlet cloudlet) {
+        getCloudletList().add(cloudlet);
+        if (released) {
+            submitCloudlets();
+        }
+    }
+
+    /**
+     * Sends the cloudlet list like DatacenterBroker does, in O(n): DatacenterBroker looks up
+     * each cloudlet's VM in a list and then removes the submitted cloudlets from the cloudlet
+     * list one by one, which is quadratic in a million-cloudlet run. It also restarts its round
+     * robin at the first VM on every call, which would put each single arrival on the same VM.
+     */
+    @Override
+    protected void submitCloudlets() {
+        released = true;
+        List<Vm> vms = getVmsCreatedList();
+        List<Cloudlet> postponed = new ArrayList<>();
+        for (Cloudlet cloudlet : getCloudletList()) {
+            if (cloudlet.getVmId() == -1 && !vms.isEmpty()) {
+                cloudlet.setVmId(vms.get(nextVm).getId());
+                nextVm = (nextVm + 1) % vms.size();
+            }
+            Integer datacenterId = getVmsToDatacentersMap().get(cloudlet.getVmId());
+            if (datacenterId == null) {
+                Log.printLine(CloudSim.clock() + ": " + getName() + ": Postponing execution of the cloudlet "
+                        + cloudlet.getCloudletId() + ": bound VM not available");
+                postponed.add(cloudlet);
+                continue;
+            }
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": Sending cloudlet " + cloudlet.getCloudletId()
+                    + " to VM #" + cloudlet.getVmId());
+            sendNow(datacenterId, CloudSimTags.CLOUDLET_SUBMIT, cloudlet);
+            cloudletsSubmitted++;
+            if (retainReceived) {
+                getCloudletSubmittedList().add(cloudlet);
+            }
+        }
+        getCloudletList().clear();
+        getCloudletList().addAll(postponed);
+    }
+
+    @Override
+    public void processEvent(SimEvent ev) {
+        SimulationProfiler.dispatched(this, ev);
+        super.processEvent(ev);
+    }
+
+    @Override
+    protected void processOtherEvent(SimEvent ev) {
+        if (ev.getTag() != CLOUDLET_ARRIVAL && ev.getTag() != STREAM_ARRIVAL) {
+            super.processOtherEvent(ev);
+            return;
+        }
+        pendingArrivals--;
+        if (ev.getTag() == STREAM_ARRIVAL) {
+            // schedule the next one first, so it counts as pending while this one is handled
+            scheduleFromStream();
+        }
+        cloudletArrived((Cloudlet) ev.getData());
+    }
+
+    @Override
+    protected void finishExecution() {
+        finished = true;
+        super.finishExecution();
+    }
+
+    protected boolean isRetainReceived() {
+        return retainReceived;
+    }
+
+    protected void record(Cloudlet cloudlet) {
+        if (sink != null) {
+            sink.accept(cloudlet);
+        }
+        if (retainReceived) {
+            getCloudletReceivedList().add(cloudlet);
+        }
+    }
+
+    @Override
+    protected void processCloudletReturn(SimEvent ev) {
+        Cloudlet cloudlet = (Cloudlet) ev.getData();
+        record(cloudlet);
+        Log.printLine(CloudSim.clock() + ": " + getName() + ": Cloudlet " + cloudlet.getCloudletId() + " received");
+        cloudletsSubmitted--;
+        if (getCloudletList().isEmpty() && cloudletsSubmitted == 0 && pendingArrivals == 0) {
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": All Cloudlets executed. Finishing...");
+            clearDatacenters();
+            finishExecution();
+        } else if (!getCloudletList().isEmpty() && cloudletsSubmitted == 0) {
+            // some cloudlets were not bound to a created VM; give the datacenters another try
+            clearDatacenters();
+            createVmsInDatacenter(0);
+        }
+    }
+}
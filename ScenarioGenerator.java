@@ -0,0 +1,500 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.core.SimEvent;
+import org.cloudbus.cloudsim.provisioners.*;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Builds datacenters, brokers, VMs and cloudlets from a properties spec instead of hand-written
+ * constants. Numeric keys take a distribution:
+ *
+ * <pre>
+ * const(v)  uniform(lo, hi)  normal(mean, sd)  lognormal(mu, sigma)  exponential(mean)
+ * choice(v1:w1, v2:w2, ...)   (a bare number is const)
+ *
+ * seed = 42
+ * datacenters = 2                       datacenter.hosts = 5000
+ * datacenter.allocation = simple | firstFit | bestFit | worstFit
+ * datacenter.cost = 3.0  (also costPerMem, costPerStorage, costPerBw)
+ * datacenter.Datacenter_1.cost = 4.5    (any datacenter.* key can be overridden per datacenter name)
+ * host.pes = choice(8:0.5, 16:0.3, 32:0.2)   host.mips = const(2500)   host.ram = 65536
+ * host.bw = 100000   host.storage = 1000000  host.vmScheduler = timeShared | spaceShared | overSubscription
+ * broker = default | priority  broker.agingRate = 0.001  broker.maxInFlightPerVm = 2
+ * broker = completionTime       broker.heuristic = mct | min-min | max-min | sufferage
+ * broker = spillover            broker.costWeight = 1  broker.delayWeight = 1
+ * broker = trace   trace.file = jobs.swf   trace.mipsPerSecond = 1000   trace.speedup = 1   cloudlets = 0
+ * broker = autoscaling   autoscale.targetResponse = 100   autoscale.maxVms = 50  (any AutoscalingBroker.Policy field)
+ * vms = 100000       vm.mips = uniform(250, 2000)  vm.pes = choice(1:0.6, 2:0.3, 4:0.1)
+ * vm.ram = 2048      vm.bw = 1000   vm.size = 10000   vm.cloudletScheduler = timeShared | spaceShared
+ * cloudlets = 1000000  cloudlet.length = lognormal(10, 1)  cloudlet.pes = 1
+ * cloudlet.fileSize = 300  cloudlet.outputSize = 300  cloudlet.utilization = full | stochastic
+ * cloudlet.interarrival = exponential(5)   cloudlet.burstSize = choice(1:0.95, 200:0.05)
+ *     (seconds between arrivals and cloudlets per arrival; without interarrival all arrive at 0)
+ * profile.interval = 60  profile.output = profile  profile.vms = false  profile.maxClock = 86400
+ *     (see SimulationProfiler)
+ * </pre>
+ *
+ * Hosts, VMs and cloudlets draw from separate random streams derived from the seed, so changing
+ * one count leaves the others' samples unchanged. Cloudlets are produced lazily by
+ * {@link #cloudlets(int)} and handed to the broker as they arrive (see
+ * {@link #submitCloudlets(ResultStreamingBroker)}), so only the cloudlets that have arrived and
+ * not yet returned are alive at any time. They are not pooled: a CloudSim Cloudlet has no reset,
+ * its id is fixed at construction and its execution history only grows, so a returned one
+ * cannot be handed out again as a new cloudlet. Cloudlets share one UtilizationModelFull;
+ * UtilizationModelStochastic remembers the sample it drew for each time, so sharing one would
+ * give every cloudlet on it the same load, and each stochastic cloudlet gets its own.
+ *
+ * The examples take a spec as their first argument ({@link #fromArgs}); they still create the
+ * datacenters and broker through their own createDatacenter / createBroker, which hand off to
+ * this class, and then call {@link #run(ResultStreamingBroker)}.
+ */
+public class ScenarioGenerator {
+
+    private final Properties spec;
+    private final long seed;
+    private final UtilizationModel sharedUtilization = new UtilizationModelFull();
+    private int datacenters;
+    private int nextVmId;
+    private int nextCloudletId;
+    private String resultsCsv;
+
+    public ScenarioGenerator(Properties spec) {
+        this.spec = spec;
+        this.seed = Long.parseLong(spec.getProperty("seed", "42"));
+    }
+
+    public static ScenarioGenerator load(String file) throws IOException {
+        Properties spec = new Properties();
+        try (Reader in = new FileReader(file)) {
+            spec.load(in);
+        }
+        return new ScenarioGenerator(spec);
+    }
+
+    /**
+     * The spec named by the first argument, or null if there are no arguments. An optional
+     * second argument is a CSV file for the finished cloudlets. defaults are key, value pairs
+     * used for keys the spec leaves out, so an example can keep its own broker.
+     */
+    public static ScenarioGenerator fromArgs(String[] args, String... defaults) throws IOException {
+        if (args.length == 0) {
+            return null;
+        }
+        ScenarioGenerator scenario = load(args[0]);
+        for (int i = 0; i + 1 < defaults.length; i += 2) {
+            if (!scenario.spec.containsKey(defaults[i])) {
+                scenario.spec.setProperty(defaults[i], defaults[i + 1]);
+            }
+        }
+        scenario.resultsCsv = args.length > 1 ? args[1] : null;
+        return scenario;
+    }
+
+    /**
+     * Runs the spec on the datacenters and broker already created from it: submits its VMs and
+     * cloudlets, streams finished cloudlets into a CloudletResultSink instead of keeping them,
+     * and prints the sink's summary and the broker's report.
+     */
+    public CloudletResultSink run(ResultStreamingBroker broker) throws IOException {
+        createProfiler("Profiler");
+        CloudletResultSink sink = resultsCsv != null ? new CloudletResultSink(new File(resultsCsv)) : new CloudletResultSink();
+        broker.setResultSink(sink);
+        broker.setRetainReceived(false);
+        List<Vm> vms = createVms(broker.getId());
+        broker.submitVmList(vms);
+        submitCloudlets(broker);
+        CloudSim.startSimulation();
+        CloudSim.stopSimulation();
+        sink.close();
+        sink.printSummary(vms);
+        printReport(broker);
+        return sink;
+    }
+
+    /** Prints what the broker reports beyond the sink's summary, if anything. */
+    public static void printReport(ResultStreamingBroker broker) {
+        if (broker instanceof AutoscalingBroker) {
+            ((AutoscalingBroker) broker).printReport();
+        }
+        if (broker instanceof SpilloverDatacenterBroker) {
+            SpilloverDatacenterBroker spillover = (SpilloverDatacenterBroker) broker;
+            Log.printLine("VMs per datacenter: " + spillover.getPlacements() + ", spills: " + spillover.getSpills());
+        }
+    }
+
+    public Properties getSpec() {
+        return spec;
+    }
+
+    public int getDatacenterCount() {
+        return Integer.parseInt(spec.getProperty("datacenters", "1"));
+    }
+
+    public int getVmCount() {
+        return Integer.parseInt(spec.getProperty("vms", "2"));
+    }
+
+    public int getCloudletCount() {
+        return Integer.parseInt(spec.getProperty("cloudlets", "2"));
+    }
+
+    public Datacenter createDatacenter(String name) throws Exception {
+        Random random = new Random(seed * 31 + ++datacenters);
+        int hosts = (int) sample(datacenterKey(name, "hosts", "1"), random, 1);
+        Distribution pes = distribution("host.pes", "1");
+        Distribution mips = distribution("host.mips", "1000");
+        Distribution ram = distribution("host.ram", "2048");
+        Distribution bw = distribution("host.bw", "10000");
+        Distribution storage = distribution("host.storage", "1000000");
+        String vmScheduler = spec.getProperty("host.vmScheduler", "timeShared");
+
+        List<Host> hostList = new ArrayList<>(hosts);
+        for (int hostId = 0; hostId < hosts; hostId++) {
+            int peCount = (int) Math.max(1, Math.round(pes.sample(random)));
+            double peMips = Math.max(1, mips.sample(random));
+            List<Pe> peList = new ArrayList<>(peCount);
+            for (int pe = 0; pe < peCount; pe++) {
+                peList.add(new Pe(pe, new PeProvisionerSimple(peMips)));
+            }
+            hostList.add(new Host(hostId,
+                    new RamProvisionerSimple((int) Math.max(1, ram.sample(random))),
+                    new BwProvisionerSimple(Math.max(1, Math.round(bw.sample(random)))),
+                    Math.max(1, Math.round(storage.sample(random))),
+                    peList,
+                    createVmScheduler(vmScheduler, peList)));
+        }
+
+        DatacenterCharacteristics characteristics = new DatacenterCharacteristics(
+                datacenterKey(name, "arch", "x86"), datacenterKey(name, "os", "Linux"), datacenterKey(name, "vmm", "Xen"),
+                hostList,
+                Double.parseDouble(datacenterKey(name, "timeZone", "10.0")),
+                Double.parseDouble(datacenterKey(name, "cost", "3.0")),
+                Double.parseDouble(datacenterKey(name, "costPerMem", "0.05")),
+                Double.parseDouble(datacenterKey(name, "costPerStorage", "0.001")),
+                Double.parseDouble(datacenterKey(name, "costPerBw", "0.0")));
+
+        // reports its events to a running SimulationProfiler; otherwise a plain Datacenter
+        return new Datacenter(name, characteristics, createAllocationPolicy(datacenterKey(name, "allocation", "simple"), hostList),
+                new LinkedList<Storage>(), 0) {
+            @Override
+            public void processEvent(SimEvent ev) {
+                SimulationProfiler.dispatched(this, ev);
+                super.processEvent(ev);
+            }
+        };
+    }
+
+    public ResultStreamingBroker createBroker(String name) throws Exception {
+        String type = spec.getProperty("broker", "default");
+        switch (type) {
+            case "default":
+                return new ResultStreamingBroker(name);
+            case "priority":
+                return new PriorityDatacenterBroker(name,
+                        Double.parseDouble(spec.getProperty("broker.agingRate", "0")),
+                        Integer.parseInt(spec.getProperty("broker.maxInFlightPerVm", "0")));
+            case "completionTime":
+                return new CompletionTimeBroker(name, CompletionTimeBroker.Heuristic.valueOf(
+                        spec.getProperty("broker.heuristic", "MCT").toUpperCase(Locale.ROOT).replace('-', '_')));
+            case "spillover":
+                return new SpilloverDatacenterBroker(name,
+                        Double.parseDouble(spec.getProperty("broker.costWeight", "1")),
+                        Double.parseDouble(spec.getProperty("broker.delayWeight", "1")));
+            case "trace":
+                return new TraceReplayBroker(name, spec.getProperty("trace.file"),
+                        Double.parseDouble(spec.getProperty("trace.mipsPerSecond", "1000")),
+                        Double.parseDouble(spec.getProperty("trace.speedup", "1")));
+            case "autoscaling":
+                return new AutoscalingBroker(name, autoscalingPolicy());
+            default:
+                throw new IllegalArgumentException("Unknown broker " + type);
+        }
+    }
+
+    /** autoscale.&lt;field&gt; keys override the matching AutoscalingBroker.Policy defaults. */
+    private AutoscalingBroker.Policy autoscalingPolicy() throws IllegalAccessException {
+        AutoscalingBroker.Policy policy = new AutoscalingBroker.Policy();
+        for (Field field : AutoscalingBroker.Policy.class.getFields()) {
+            String value = spec.getProperty("autoscale." + field.getName());
+            if (value != null) {
+                field.set(policy, field.getType() == int.class ? (Object) Integer.parseInt(value.trim()) : Double.parseDouble(value.trim()));
+            }
+        }
+        return policy;
+    }
+
+    /** A SimulationProfiler if the spec sets profile.interval, otherwise null. */
+    public SimulationProfiler createProfiler(String name) {
+        String interval = spec.getProperty("profile.interval");
+        if (interval == null) {
+            return null;
+        }
+        SimulationProfiler profiler = new SimulationProfiler(name, Double.parseDouble(interval),
+                spec.getProperty("profile.output", "profile"));
+        profiler.setSampleVms(Boolean.parseBoolean(spec.getProperty("profile.vms", "false")));
+        String maxClock = spec.getProperty("profile.maxClock");
+        if (maxClock != null) {
+            profiler.setMaxClock(Double.parseDouble(maxClock));
+        }
+        return profiler;
+    }
+
+    public List<Vm> createVms(int brokerId) {
+        Random random = new Random(seed * 31 + 1000);
+        Distribution mips = distribution("vm.mips", "250");
+        Distribution pes = distribution("vm.pes", "1");
+        Distribution ram = distribution("vm.ram", "512");
+        Distribution bw = distribution("vm.bw", "1000");
+        Distribution size = distribution("vm.size", "10000");
+        String vmm = spec.getProperty("vm.vmm", "Xen");
+        String scheduler = spec.getProperty("vm.cloudletScheduler", "timeShared");
+
+        int count = getVmCount();
+        List<Vm> vms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            vms.add(new Vm(nextVmId++, brokerId,
+                    Math.max(1, mips.sample(random)),
+                    (int) Math.max(1, Math.round(pes.sample(random))),
+                    (int) Math.max(1, ram.sample(random)),
+                    Math.max(1, Math.round(bw.sample(random))),
+                    Math.max(1, Math.round(size.sample(random))),
+                    vmm, createCloudletScheduler(scheduler)));
+        }
+        return vms;
+    }
+
+    /** Cloudlets are built one at a time as the iterator is consumed. */
+    public Iterator<Cloudlet> cloudlets(final int brokerId) {
+        final Random random = new Random(seed * 31 + 2000);
+        final Distribution length = distribution("cloudlet.length", "40000");
+        final Distribution pes = distribution("cloudlet.pes", "1");
+        final Distribution fileSize = distribution("cloudlet.fileSize", "300");
+        final Distribution outputSize = distribution("cloudlet.outputSize", "300");
+        final boolean stochastic = "stochastic".equals(spec.getProperty("cloudlet.utilization", "full"));
+        final int count = getCloudletCount();
+
+        return new Iterator<Cloudlet>() {
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < count;
+            }
+
+            @Override
+            public Cloudlet next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                produced++;
+                // UtilizationModelStochastic remembers its samples, so it cannot be shared
+                UtilizationModel utilization = stochastic ? new UtilizationModelStochastic(random.nextLong()) : sharedUtilization;
+                Cloudlet cloudlet = new Cloudlet(nextCloudletId++,
+                        Math.max(1, Math.round(length.sample(random))),
+                        (int) Math.max(1, Math.round(pes.sample(random))),
+                        Math.max(1, Math.round(fileSize.sample(random))),
+                        Math.max(1, Math.round(outputSize.sample(random))),
+                        utilization, utilization, utilization);
+                cloudlet.setUserId(brokerId);
+                return cloudlet;
+            }
+        };
+    }
+
+    /**
+     * Gives the broker every cloudlet of the spec as a stream, each built only when the one
+     * before it arrives (see ResultStreamingBroker.submitArrivals). With cloudlet.interarrival
+     * set they arrive in bursts of cloudlet.burstSize (default 1), the gap before each burst
+     * drawn from cloudlet.interarrival; otherwise all of them arrive at time 0, before the
+     * datacenters acknowledge the VMs, so the broker still binds them as one batch.
+     */
+    public void submitCloudlets(ResultStreamingBroker broker) {
+        final Iterator<Cloudlet> cloudlets = cloudlets(broker.getId());
+        final Random random = new Random(seed * 31 + 3000);
+        final Distribution gap = distribution("cloudlet.interarrival", "0");
+        final Distribution burstSize = distribution("cloudlet.burstSize", "1");
+        broker.submitArrivals(new ResultStreamingBroker.ArrivalStream() {
+            private double time;
+            private long burstLeft;
+
+            @Override
+            public Cloudlet next() {
+                if (!cloudlets.hasNext()) {
+                    return null;
+                }
+                if (burstLeft == 0) {
+                    time += Math.max(0, gap.sample(random));
+                    burstLeft = Math.max(1, Math.round(burstSize.sample(random)));
+                }
+                burstLeft--;
+                return cloudlets.next();
+            }
+
+            @Override
+            public double arrivalTime() {
+                return time;
+            }
+        });
+    }
+
+    public List<Cloudlet> createCloudlets(int brokerId) {
+        List<Cloudlet> cloudlets = new ArrayList<>(getCloudletCount());
+        for (Iterator<Cloudlet> it = cloudlets(brokerId); it.hasNext(); ) {
+            cloudlets.add(it.next());
+        }
+        return cloudlets;
+    }
+
+    protected VmAllocationPolicy createAllocationPolicy(String type, List<Host> hostList) {
+        switch (type) {
+            case "simple":
+                return new VmAllocationPolicySimple(hostList);
+            case "firstFit":
+                return new IndexedVmAllocationPolicy(hostList, IndexedVmAllocationPolicy.Strategy.FIRST_FIT);
+            case "bestFit":
+                return new IndexedVmAllocationPolicy(hostList, IndexedVmAllocationPolicy.Strategy.BEST_FIT);
+            case "worstFit":
+                return new IndexedVmAllocationPolicy(hostList, IndexedVmAllocationPolicy.Strategy.WORST_FIT);
+            default:
+                throw new IllegalArgumentException("Unknown allocation policy " + type);
+        }
+    }
+
+    private static VmScheduler createVmScheduler(String type, List<Pe> peList) {
+        switch (type) {
+            case "timeShared":
+                return new VmSchedulerTimeShared(peList);
+            case "spaceShared":
+                return new VmSchedulerSpaceShared(peList);
+            case "overSubscription":
+                return new VmSchedulerTimeSharedOverSubscription(peList);
+            default:
+                throw new IllegalArgumentException("Unknown VM scheduler " + type);
+        }
+    }
+
+    private static CloudletScheduler createCloudletScheduler(String type) {
+        switch (type) {
+            case "timeShared":
+                return new CloudletSchedulerTimeShared();
+            case "spaceShared":
+                return new CloudletSchedulerSpaceShared();
+            default:
+                throw new IllegalArgumentException("Unknown cloudlet scheduler " + type);
+        }
+    }
+
+    /** datacenter.&lt;name&gt;.&lt;key&gt; if present, else datacenter.&lt;key&gt;. */
+    public String datacenterKey(String name, String key, String defaultValue) {
+        return spec.getProperty("datacenter." + name + "." + key, spec.getProperty("datacenter." + key, defaultValue));
+    }
+
+    private double sample(String text, Random random, double min) {
+        return Math.max(min, Math.round(Distribution.parse(text).sample(random)));
+    }
+
+    private Distribution distribution(String key, String defaultValue) {
+        return Distribution.parse(spec.getProperty(key, defaultValue));
+    }
+}
+
+/** A parsed distribution from a scenario spec, e.g. "uniform(250, 2000)". */
+abstract class Distribution {
+
+    abstract double sample(Random random);
+
+    static Distribution parse(String text) {
+        String s = text.trim();
+        int open = s.indexOf('(');
+        if (open < 0) {
+            return constant(Double.parseDouble(s));
+        }
+        if (!s.endsWith(")")) {
+            throw new IllegalArgumentException("Bad distribution " + text);
+        }
+        String name = s.substring(0, open).trim();
+        String[] args = s.substring(open + 1, s.length() - 1).split(",");
+        switch (name) {
+            case "const":
+                return constant(number(args, 0, text));
+            case "uniform": {
+                final double lo = number(args, 0, text);
+                final double hi = number(args, 1, text);
+                return new Distribution() {
+                    double sample(Random random) {
+                        return lo + (hi - lo) * random.nextDouble();
+                    }
+                };
+            }
+            case "normal": {
+                final double mean = number(args, 0, text);
+                final double sd = number(args, 1, text);
+                return new Distribution() {
+                    double sample(Random random) {
+                        return mean + sd * random.nextGaussian();
+                    }
+                };
+            }
+            case "lognormal": {
+                final double mu = number(args, 0, text);
+                final double sigma = number(args, 1, text);
+                return new Distribution() {
+                    double sample(Random random) {
+                        return Math.exp(mu + sigma * random.nextGaussian());
+                    }
+                };
+            }
+            case "exponential": {
+                final double mean = number(args, 0, text);
+                return new Distribution() {
+                    double sample(Random random) {
+                        return -mean * Math.log(1 - random.nextDouble());
+                    }
+                };
+            }
+            case "choice": {
+                final double[] values = new double[args.length];
+                final double[] cumulative = new double[args.length];
+                double total = 0;
+                for (int i = 0; i < args.length; i++) {
+                    String[] pair = args[i].split(":");
+                    values[i] = Double.parseDouble(pair[0].trim());
+                    total += pair.length > 1 ? Double.parseDouble(pair[1].trim()) : 1;
+                    cumulative[i] = total;
+                }
+                final double sum = total;
+                return new Distribution() {
+                    double sample(Random random) {
+                        int i = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                        return values[Math.min(i < 0 ? -i - 1 : i, values.length - 1)];
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + text);
+        }
+    }
+
+    private static Distribution constant(final double value) {
+        return new Distribution() {
+            double sample(Random random) {
+                return value;
+            }
+        };
+    }
+
+    private static double number(String[] args, int i, String text) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing parameter in " + text);
+        }
+        return Double.parseDouble(args[i].trim());
+    }
+}
@@ -0,0 +1,314 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.*;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Entity that looks inside a running simulation every interval simulated seconds. Each sample
+ * records the wall clock, the future and deferred queue depths, how many events were processed
+ * and how many were scheduled since the previous sample, and the CPU utilization of every host
+ * and, optionally, every VM.
+ *
+ * CloudSim keeps no processed-event counter, so entities report each event they are handed
+ * through {@link #dispatched(SimEntity, SimEvent)}: every ResultStreamingBroker does, and so do
+ * the datacenters ScenarioGenerator builds. Events for other entities (CloudInformationService,
+ * hand-built datacenters, the profiler itself) are not counted. Processed events are counted by
+ * destination entity and tag; the events still waiting in the future queue at each sample are
+ * counted the same way, as the mean and peak per sample.
+ *
+ * CloudSim does not expose its queues, so they are read through reflection on CloudSim.future,
+ * CloudSim.deferred and FutureQueue.serial; if that fails (another CloudSim version) the queue
+ * and scheduled figures are reported as -1, and processed events and utilization are still
+ * sampled. Walking the future queue costs O(queue size) per sample, so keep the interval coarse
+ * on large scenarios.
+ *
+ * The profiler stops rescheduling itself once nothing else is queued, so it does not keep the
+ * simulation alive. Without the queues (the fallback above) it keeps sampling only while some
+ * ResultStreamingBroker has not finished; with any other broker in the run it cannot tell when
+ * the work is done and samples only up to setMaxClock, or once if no limit is set. The max
+ * clock also caps sampling in the normal mode. When CloudSim shuts the entities down it writes &lt;prefix&gt;.json (run
+ * totals, per-sample figures, processed and pending events by entity and tag) and
+ * &lt;prefix&gt;-utilization.csv (time,kind,datacenter,id,utilization).
+ */
+public class SimulationProfiler extends SimEntity {
+
+    private static final int SAMPLE = 46101;
+
+    private static SimulationProfiler active;
+
+    private final double interval;
+    private final String prefix;
+    private boolean sampleVms;
+    private double maxClock = Double.POSITIVE_INFINITY;
+    private final Map<Integer, String> tagNames = tagNames();
+    private final List<double[]> samples = new ArrayList<>();
+    private final Map<String, long[]> pendingByEntityAndTag = new TreeMap<>();
+    private final Map<String, long[]> processedByEntityAndTag = new TreeMap<>();
+    private Writer utilization;
+    private Object future;
+    private Object deferred;
+    private Field serial;
+    private long startNanos;
+    private long lastSerial;
+    private long processed;
+    private long lastProcessed;
+
+    public SimulationProfiler(String name, double interval, String prefix) {
+        super(name);
+        this.interval = interval;
+        this.prefix = prefix;
+    }
+
+    /** Also sample every VM's utilization, not only hosts. Off by default: it is one row per VM per sample. */
+    public void setSampleVms(boolean sampleVms) {
+        this.sampleVms = sampleVms;
+    }
+
+    /** Last simulated time at which a sample is taken. */
+    public void setMaxClock(double maxClock) {
+        this.maxClock = maxClock;
+    }
+
+    /** Counts an event handed to the entity, if a profiler is running. Call it first thing in processEvent. */
+    public static void dispatched(SimEntity entity, SimEvent ev) {
+        SimulationProfiler profiler = active;
+        if (profiler == null) {
+            return;
+        }
+        profiler.processed++;
+        String key = entity.getName() + "/" + profiler.tagName(ev.getTag());
+        long[] count = profiler.processedByEntityAndTag.get(key);
+        if (count == null) {
+            count = new long[1];
+            profiler.processedByEntityAndTag.put(key, count);
+        }
+        count[0]++;
+    }
+
+    @Override
+    public void startEntity() {
+        active = this;
+        startNanos = System.nanoTime();
+        try {
+            future = staticField(CloudSim.class, "future");
+            deferred = staticField(CloudSim.class, "deferred");
+            serial = future.getClass().getDeclaredField("serial");
+            serial.setAccessible(true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.printLine(getName() + ": cannot read CloudSim queues (" + e + "), sampling utilization only");
+            future = null;
+        }
+        try {
+            utilization = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(prefix + "-utilization.csv"), StandardCharsets.UTF_8), 1 << 16);
+            utilization.write("time,kind,datacenter,id,utilization\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        schedule(getId(), 0, SAMPLE);
+    }
+
+    @Override
+    public void processEvent(SimEvent ev) {
+        if (ev.getTag() != SAMPLE) {
+            return;
+        }
+        sample();
+        if (CloudSim.clock() + interval <= maxClock && othersActive()) {
+            schedule(getId(), interval, SAMPLE);
+        }
+    }
+
+    private boolean othersActive() {
+        if (future != null) {
+            // our own event has already been taken off the queue; anything left belongs to others
+            return queueSize(future) > 0 || queueSize(deferred) > 0;
+        }
+        boolean running = false;
+        for (SimEntity entity : CloudSim.getEntityList()) {
+            if (entity instanceof ResultStreamingBroker) {
+                running |= !((ResultStreamingBroker) entity).isFinished();
+            } else if (entity instanceof DatacenterBroker) {
+                // no way to see whether it is done; only an explicit max clock ends sampling
+                return maxClock != Double.POSITIVE_INFINITY;
+            }
+        }
+        return running;
+    }
+
+    @Override
+    public void shutdownEntity() {
+        if (active == this) {
+            active = null;
+        }
+        try {
+            utilization.close();
+            writeJson();
+            Log.printLine(getName() + ": profile written to " + prefix + ".json");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void sample() {
+        double now = CloudSim.clock();
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+        long scheduled = -1;
+        int futureDepth = -1;
+        int deferredDepth = -1;
+        if (future != null) {
+            try {
+                scheduled = serial.getLong(future);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            futureDepth = queueSize(future);
+            deferredDepth = queueSize(deferred);
+            Map<String, Integer> pending = new HashMap<>();
+            for (Iterator<SimEvent> it = ((FutureQueue) future).iterator(); it.hasNext(); ) {
+                SimEvent event = it.next();
+                String key = CloudSim.getEntityName(event.getDestination()) + "/" + tagName(event.getTag());
+                Integer count = pending.get(key);
+                pending.put(key, count == null ? 1 : count + 1);
+            }
+            for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+                long[] totals = pendingByEntityAndTag.get(entry.getKey());
+                if (totals == null) {
+                    totals = new long[2];
+                    pendingByEntityAndTag.put(entry.getKey(), totals);
+                }
+                totals[0] += entry.getValue();
+                totals[1] = Math.max(totals[1], entry.getValue());
+            }
+        }
+        samples.add(new double[]{now, wallSeconds, futureDepth, deferredDepth,
+                processed - lastProcessed, scheduled < 0 ? -1 : scheduled - lastSerial});
+        lastSerial = Math.max(lastSerial, scheduled);
+        lastProcessed = processed;
+
+        try {
+            for (SimEntity entity : CloudSim.getEntityList()) {
+                if (entity instanceof Datacenter) {
+                    sampleDatacenter((Datacenter) entity, now);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void sampleDatacenter(Datacenter datacenter, double now) throws IOException {
+        for (Host host : datacenter.<Host>getHostList()) {
+            double used = 0;
+            for (Vm vm : host.<Vm>getVmList()) {
+                used += vm.getTotalUtilizationOfCpuMips(now);
+                if (sampleVms) {
+                    row(now, "vm", datacenter.getName(), vm.getId(), vm.getTotalUtilizationOfCpu(now));
+                }
+            }
+            row(now, "host", datacenter.getName(), host.getId(), host.getTotalMips() == 0 ? 0 : used / host.getTotalMips());
+        }
+    }
+
+    private void row(double time, String kind, String datacenter, int id, double value) throws IOException {
+        utilization.write(time + "," + kind + "," + datacenter + "," + id + "," + value + "\n");
+    }
+
+    private void writeJson() throws IOException {
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+        double simulated = CloudSim.clock();
+        if (future != null) {
+            try {
+                lastSerial = serial.getLong(future);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"wallSeconds\": ").append(wallSeconds);
+        json.append(",\n  \"simulatedSeconds\": ").append(simulated);
+        json.append(",\n  \"wallPerSimulatedSecond\": ").append(simulated == 0 ? 0 : wallSeconds / simulated);
+        json.append(",\n  \"eventsProcessed\": ").append(processed);
+        json.append(",\n  \"eventsPerWallSecond\": ").append(wallSeconds == 0 ? 0 : processed / wallSeconds);
+        json.append(",\n  \"eventsScheduled\": ").append(future == null ? -1 : lastSerial);
+        json.append(",\n  \"samples\": [");
+        String separator = "\n";
+        double previousWall = 0;
+        for (double[] s : samples) {
+            double wallDelta = s[1] - previousWall;
+            json.append(separator).append("    {\"clock\": ").append(s[0])
+                    .append(", \"wallSeconds\": ").append(s[1])
+                    .append(", \"futureQueue\": ").append((long) s[2])
+                    .append(", \"deferredQueue\": ").append((long) s[3])
+                    .append(", \"eventsProcessed\": ").append((long) s[4])
+                    .append(", \"eventsPerWallSecond\": ").append(wallDelta <= 0 ? 0 : s[4] / wallDelta)
+                    .append(", \"eventsScheduled\": ").append((long) s[5])
+                    .append('}');
+            previousWall = s[1];
+            separator = ",\n";
+        }
+        json.append("\n  ],\n  \"processedByEntityAndTag\": {");
+        separator = "\n";
+        for (Map.Entry<String, long[]> entry : processedByEntityAndTag.entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": ").append(entry.getValue()[0]);
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"pendingByEntityAndTag\": {");
+        separator = "\n";
+        for (Map.Entry<String, long[]> entry : pendingByEntityAndTag.entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey()))
+                    .append(": {\"meanPerSample\": ").append(samples.isEmpty() ? 0 : (double) entry.getValue()[0] / samples.size())
+                    .append(", \"max\": ").append(entry.getValue()[1]).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        try (OutputStream out = new FileOutputStream(prefix + ".json")) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String tagName(int tag) {
+        String name = tagNames.get(tag);
+        return name != null ? name : Integer.toString(tag);
+    }
+
+    private static Map<Integer, String> tagNames() {
+        Map<Integer, String> names = new HashMap<>();
+        for (Field field : CloudSimTags.class.getFields()) {
+            if (field.getType() == int.class && Modifier.isStatic(field.getModifiers())) {
+                try {
+                    int value = field.getInt(null);
+                    if (!names.containsKey(value)) {
+                        names.put(value, field.getName());
+                    }
+                } catch (IllegalAccessException e) {
+                    // public constant, cannot happen
+                }
+            }
+        }
+        return names;
+    }
+
+    private static Object staticField(Class<?> type, String name) throws ReflectiveOperationException {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static int queueSize(Object queue) {
+        if (queue instanceof FutureQueue) {
+            return ((FutureQueue) queue).size();
+        }
+        return queue instanceof DeferredQueue ? ((DeferredQueue) queue).size() : 0;
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
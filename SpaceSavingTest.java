@@ -0,0 +1,66 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SpaceSavingTest {
+
+    private static void offer(SpaceSaving summary, String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        summary.offer(bytes, 0, bytes.length, 1);
+    }
+
+    private static Map<String, SpaceSaving.Counter> contents(SpaceSaving summary) {
+        Map<String, SpaceSaving.Counter> contents = new HashMap<>();
+        for (int i = 0; i < summary.size(); i++) {
+            contents.put(summary.get(i).getWord().toString(), summary.get(i));
+        }
+        return contents;
+    }
+
+    @Test
+    public void evictsTheSmallestCounter() {
+        SpaceSaving summary = new SpaceSaving(3);
+        for (int i = 0; i < 5; i++) {
+            offer(summary, "a");
+        }
+        offer(summary, "b");
+        offer(summary, "c");
+        offer(summary, "d");
+
+        Map<String, SpaceSaving.Counter> contents = contents(summary);
+        assertEquals(5, contents.get("a").getCount());
+        assertEquals(0, contents.get("a").getError());
+        assertEquals(2, contents.get("d").getCount());
+        assertEquals(1, contents.get("d").getError());
+        assertEquals(1, contents.get("c").getCount());
+        assertNull(contents.get("b"));
+        assertEquals(1, summary.minCount());
+    }
+
+    @Test
+    public void keepsHeapOrderUnderMixedOffers() {
+        SpaceSaving summary = new SpaceSaving(8);
+        String[] words = {"x", "y", "z", "x", "w", "v", "x", "y", "u", "t", "s", "r", "x", "q", "y", "p"};
+        for (String word : words) {
+            offer(summary, word);
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < summary.size(); i++) {
+                min = Math.min(min, summary.get(i).getCount());
+                int parent = (i - 1) / 2;
+                if (i > 0) {
+                    assertTrue(summary.get(parent).getCount() <= summary.get(i).getCount());
+                }
+            }
+            assertEquals(min, summary.get(0).getCount());
+        }
+        Map<String, SpaceSaving.Counter> contents = contents(summary);
+        assertEquals(4, contents.get("x").getCount());
+        assertEquals(3, contents.get("y").getCount());
+    }
+}
@@ -0,0 +1,281 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.core.CloudSimTags;
+import org.cloudbus.cloudsim.core.SimEvent;
+import org.cloudbus.cloudsim.lists.VmList;
+
+import java.util.*;
+
+/**
+ * Broker that places every VM on the datacenter where it is cheapest to run, instead of
+ * offering all VMs to the first datacenter and moving on only once it refused them. Once all
+ * DatacenterCharacteristics have arrived the broker builds a capacity view of each datacenter
+ * (the MIPS its hosts' VmSchedulers report as available, free RAM and bandwidth, total MIPS)
+ * and sends each VM to the datacenter with the lowest score among those with room:
+ *
+ * <pre>
+ * score = costWeight * (cost * pes + costPerMem * ram + costPerStorage * size)
+ *       + delayWeight * rho / (1 - rho)      rho = MIPS placed there / datacenter MIPS
+ * </pre>
+ *
+ * The second term is the M/M/1 queueing delay factor, so a loaded datacenter looks more
+ * expensive the closer it gets to saturation. The view is updated as soon as a VM is sent.
+ * Room is measured in MIPS rather than free PEs, since a time-shared host runs several VMs on
+ * one PE; over-subscribing hosts count as unlimited.
+ *
+ * When a datacenter refuses a VM (no single host has room) its reservation is returned and the
+ * VM spills over to its next-best datacenter. The broker then checks the datacenter's hosts to
+ * see what was short: if no host had the MIPS, the RAM or the bandwidth, later VMs that need at
+ * least as much of that resource are not offered there either; if each host lacked something
+ * different, or the host's scheduler refused for another reason (free PEs under space sharing),
+ * only that VM is kept away. Cloudlets are submitted once every VM is either created or has
+ * been refused everywhere.
+ */
+public class SpilloverDatacenterBroker extends ResultStreamingBroker {
+
+    private final double costWeight;
+    private final double delayWeight;
+    private final Map<Integer, DatacenterView> views = new LinkedHashMap<>();
+    private final Map<Integer, Set<Integer>> refusedBy = new HashMap<>();
+    private int pending;
+    private int spills;
+
+    public SpilloverDatacenterBroker(String name) throws Exception {
+        this(name, 1, 1);
+    }
+
+    public SpilloverDatacenterBroker(String name, double costWeight, double delayWeight) throws Exception {
+        super(name);
+        this.costWeight = costWeight;
+        this.delayWeight = delayWeight;
+    }
+
+    /** Number of VM placements that had to move to another datacenter after a refusal. */
+    public int getSpills() {
+        return spills;
+    }
+
+    /** VMs created per datacenter name. */
+    public Map<String, Integer> getPlacements() {
+        Map<String, Integer> placements = new LinkedHashMap<>();
+        for (DatacenterView view : views.values()) {
+            placements.put(view.characteristics.getResourceName(), view.created);
+        }
+        return placements;
+    }
+
+    /** Called by DatacenterBroker once every datacenter answered; places all VMs at once. */
+    @Override
+    protected void createVmsInDatacenter(int datacenterId) {
+        if (views.isEmpty()) {
+            for (int id : getDatacenterIdsList()) {
+                views.put(id, new DatacenterView(id, getDatacenterCharacteristicsList().get(id)));
+            }
+        }
+        for (Vm vm : getVmList()) {
+            if (!getVmsToDatacentersMap().containsKey(vm.getId())) {
+                place(vm);
+            }
+        }
+        finishPlacementIfDone();
+    }
+
+    @Override
+    protected void processVmCreate(SimEvent ev) {
+        int[] data = (int[]) ev.getData();
+        int datacenterId = data[0];
+        int vmId = data[1];
+        Vm vm = VmList.getById(getVmList(), vmId);
+        DatacenterView view = views.get(datacenterId);
+        pending--;
+
+        if (data[2] == CloudSimTags.TRUE) {
+            getVmsToDatacentersMap().put(vmId, datacenterId);
+            getVmsCreatedList().add(vm);
+            view.created++;
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": VM #" + vmId
+                    + " has been created in Datacenter #" + datacenterId + ", Host #" + vm.getHost().getId());
+        } else {
+            view.release(vm);
+            Shortage shortage = view.refuse(vm);
+            refused(vmId).add(datacenterId);
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": Creation of VM #" + vmId
+                    + " failed in Datacenter #" + datacenterId + " (" + shortage + "), spilling over");
+            spills++;
+            place(vm);
+        }
+        finishPlacementIfDone();
+    }
+
+    private void place(Vm vm) {
+        DatacenterView best = null;
+        double bestScore = Double.MAX_VALUE;
+        Set<Integer> refused = refusedBy.get(vm.getId());
+        for (DatacenterView view : views.values()) {
+            if ((refused != null && refused.contains(view.id)) || !view.fits(vm)) {
+                continue;
+            }
+            double score = score(view, vm);
+            if (score < bestScore) {
+                bestScore = score;
+                best = view;
+            }
+        }
+        if (best == null) {
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": No datacenter has room for VM #" + vm.getId()
+                    + "; it will not be created");
+            return;
+        }
+        best.reserve(vm);
+        pending++;
+        Log.printLine(CloudSim.clock() + ": " + getName() + ": Trying to Create VM #" + vm.getId()
+                + " in " + best.characteristics.getResourceName());
+        sendNow(best.id, CloudSimTags.VM_CREATE_ACK, vm);
+    }
+
+    private double score(DatacenterView view, Vm vm) {
+        DatacenterCharacteristics c = view.characteristics;
+        double price = c.getCostPerSecond() * vm.getNumberOfPes()
+                + c.getCostPerMem() * vm.getRam()
+                + c.getCostPerStorage() * vm.getSize();
+        double rho = (view.placedMips + vm.getMips() * vm.getNumberOfPes()) / view.totalMips;
+        double delay = rho >= 1 ? Double.MAX_VALUE / 2 : rho / (1 - rho);
+        return costWeight * price + delayWeight * delay;
+    }
+
+    private void finishPlacementIfDone() {
+        if (pending > 0) {
+            return;
+        }
+        if (!getVmsCreatedList().isEmpty()) {
+            submitCloudlets();
+        } else {
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": none of the required VMs could be created. Aborting");
+            finishExecution();
+        }
+    }
+
+    private Set<Integer> refused(int vmId) {
+        Set<Integer> refused = refusedBy.get(vmId);
+        if (refused == null) {
+            refused = new HashSet<>();
+            refusedBy.put(vmId, refused);
+        }
+        return refused;
+    }
+
+    /** What a datacenter lacked when it refused a VM. */
+    private enum Shortage {
+        MIPS, RAM, BW,
+        /** Every resource was on some host, just not all on one, or the scheduler refused. */
+        OTHER
+    }
+
+    private static final class DatacenterView {
+        final int id;
+        final DatacenterCharacteristics characteristics;
+        final double totalMips;
+        final double fastestPe;
+        double freeMips;
+        long freeRam;
+        long freeBw;
+        double placedMips;
+        final Map<Shortage, List<Vm>> refusals = new EnumMap<>(Shortage.class);
+        int created;
+
+        DatacenterView(int id, DatacenterCharacteristics characteristics) {
+            this.id = id;
+            this.characteristics = characteristics;
+            double mips = 0;
+            double fastest = 0;
+            for (Host host : characteristics.getHostList()) {
+                mips += host.getTotalMips();
+                fastest = Math.max(fastest, peMips(host));
+                freeMips += availableMips(host);
+                freeRam += host.getRamProvisioner().getAvailableRam();
+                freeBw += host.getBwProvisioner().getAvailableBw();
+                // VMs other brokers already run here count towards the load
+                placedMips += host.getTotalMips() - host.getVmScheduler().getAvailableMips();
+            }
+            this.totalMips = Math.max(1, mips);
+            this.fastestPe = fastest;
+        }
+
+        boolean fits(Vm vm) {
+            if (vm.getMips() > fastestPe || totalMips(vm) > freeMips || vm.getRam() > freeRam || vm.getBw() > freeBw) {
+                return false;
+            }
+            for (Map.Entry<Shortage, List<Vm>> entry : refusals.entrySet()) {
+                for (Vm refused : entry.getValue()) {
+                    if (needsAsMuch(entry.getKey(), vm, refused)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Records what the hosts lacked for a VM this datacenter refused. */
+        Shortage refuse(Vm vm) {
+            boolean mips = false;
+            boolean ram = false;
+            boolean bw = false;
+            for (Host host : characteristics.getHostList()) {
+                mips |= peMips(host) >= vm.getMips() && availableMips(host) >= totalMips(vm);
+                ram |= host.getRamProvisioner().getAvailableRam() >= vm.getRam();
+                bw |= host.getBwProvisioner().getAvailableBw() >= vm.getBw();
+            }
+            Shortage shortage = !mips ? Shortage.MIPS : !ram ? Shortage.RAM : !bw ? Shortage.BW : Shortage.OTHER;
+            if (shortage != Shortage.OTHER) {
+                List<Vm> list = refusals.get(shortage);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    refusals.put(shortage, list);
+                }
+                list.add(vm);
+            }
+            return shortage;
+        }
+
+        void reserve(Vm vm) {
+            freeMips -= totalMips(vm);
+            freeRam -= vm.getRam();
+            freeBw -= vm.getBw();
+            placedMips += totalMips(vm);
+        }
+
+        void release(Vm vm) {
+            freeMips += totalMips(vm);
+            freeRam += vm.getRam();
+            freeBw += vm.getBw();
+            placedMips -= totalMips(vm);
+        }
+
+        private static boolean needsAsMuch(Shortage shortage, Vm vm, Vm refused) {
+            switch (shortage) {
+                case MIPS:
+                    return vm.getMips() >= refused.getMips() && totalMips(vm) >= totalMips(refused);
+                case RAM:
+                    return vm.getRam() >= refused.getRam();
+                default:
+                    return vm.getBw() >= refused.getBw();
+            }
+        }
+
+        private static double totalMips(Vm vm) {
+            return vm.getMips() * vm.getNumberOfPes();
+        }
+
+        private static double peMips(Host host) {
+            // what VmScheduler.getPeCapacity reports: hosts are built from identical PEs
+            return host.getPeList().isEmpty() ? 0 : host.getPeList().get(0).getMips();
+        }
+
+        private static double availableMips(Host host) {
+            return host.getVmScheduler() instanceof VmSchedulerTimeSharedOverSubscription
+                    ? Double.POSITIVE_INFINITY : host.getVmScheduler().getAvailableMips();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+// TA_Mapper.java
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+// One scan per record feeds every statistic. Keys are tagged with their statistic in the first
+// byte (see TA_Reducer) so all of them share one shuffle; counts are aggregated in memory and
+// emitted in close(), or earlier if the tables outgrow textanalytics.memory.bytes.
+// Characters are decoded by Utf8, the validator CharacterCount uses: malformed bytes count as
+// U+FFFD one at a time. The byte total includes line terminators, taken from the gap
+// to the next record's offset and, for a task's last line, from the file itself.
+public class TA_Mapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, LongWritable> {
+    public static final String MEMORY = "textanalytics.memory.bytes";
+    private static final byte[] REPLACEMENT = {(byte) 0xef, (byte) 0xbf, (byte) 0xbd};
+
+    private final ByteTokenizer tokens = new ByteTokenizer();
+    private final ByteCountTable words = new ByteCountTable(1024);
+    private final ByteCountTable chars = new ByteCountTable(256);
+    private long[] lengths = new long[64];
+    private long lines;
+    private long bytes;
+    private long wordTotal;
+    private long charTotal;
+    private long maxTableBytes;
+    private JobConf job;
+    private InputSplit split;
+    private long lastEnd = -1;
+    private OutputCollector<Text, LongWritable> collector;
+    private final Text key = new Text();
+    private final byte[] tag = new byte[1];
+    private final LongWritable count = new LongWritable();
+
+    @Override
+    public void configure(JobConf job) {
+        this.job = job;
+        maxTableBytes = job.getLong(MEMORY, 64L << 20);
+    }
+
+    public void map(LongWritable offset, Text value, OutputCollector<Text, LongWritable> output, Reporter reporter) throws IOException {
+        collector = output;
+        byte[] data = value.getBytes();
+        int length = value.getLength();
+        lines++;
+        if (lastEnd < 0) {
+            split = reporter.getInputSplit();
+        } else {
+            // the previous line's terminator
+            bytes += offset.get() - lastEnd;
+        }
+        bytes += length;
+        lastEnd = offset.get() + length;
+
+        for (int i = 0; i < length; ) {
+            int n = Utf8.sequenceLength(data, i, length);
+            if (n == 0) {
+                chars.add(REPLACEMENT, 0, REPLACEMENT.length, 1);
+                i++;
+            } else {
+                chars.add(data, i, n, 1);
+                i += n;
+            }
+            charTotal++;
+        }
+
+        tokens.reset(data, 0, length);
+        while (tokens.next()) {
+            words.add(tokens.bytes(), tokens.start(), tokens.length(), 1);
+            wordTotal++;
+            int tokenChars = 0;
+            int end = tokens.start() + tokens.length();
+            for (int i = tokens.start(); i < end; tokenChars++) {
+                int n = Utf8.sequenceLength(data, i, end);
+                i += n == 0 ? 1 : n;
+            }
+            if (tokenChars >= lengths.length) {
+                lengths = Arrays.copyOf(lengths, Math.max(lengths.length * 2, tokenChars + 1));
+            }
+            lengths[tokenChars]++;
+        }
+
+        if (words.memoryBytes() + chars.memoryBytes() > maxTableBytes) {
+            flush(output);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (collector != null) {
+            bytes += lastTerminator();
+            flush(collector);
+        }
+    }
+
+    // Length of the terminator after the last line this task read; 0 at the end of the file,
+    // or when the split is not a file split and the file cannot be looked at.
+    private int lastTerminator() throws IOException {
+        if (!(split instanceof FileSplit)) {
+            return 0;
+        }
+        Path path = ((FileSplit) split).getPath();
+        FileSystem fs = path.getFileSystem(job);
+        if (lastEnd >= fs.getFileStatus(path).getLen()) {
+            return 0;
+        }
+        try (FSDataInputStream in = fs.open(path)) {
+            in.seek(lastEnd);
+            int b = in.read();
+            if (b == '\r') {
+                return in.read() == '\n' ? 2 : 1;
+            }
+            return b == '\n' ? 1 : 0;
+        }
+    }
+
+    private void flush(OutputCollector<Text, LongWritable> output) throws IOException {
+        emit(output, TA_Reducer.WORDS, words);
+        emit(output, TA_Reducer.CHARS, chars);
+        emit(output, TA_Reducer.TOTALS, "lines", lines);
+        emit(output, TA_Reducer.TOTALS, "bytes", bytes);
+        emit(output, TA_Reducer.TOTALS, "words", wordTotal);
+        emit(output, TA_Reducer.TOTALS, "chars", charTotal);
+        for (int length = 0; length < lengths.length; length++) {
+            emit(output, TA_Reducer.LENGTHS, Integer.toString(length), lengths[length]);
+        }
+        words.clear();
+        chars.clear();
+        Arrays.fill(lengths, 0);
+        lines = bytes = wordTotal = charTotal = 0;
+    }
+
+    private void emit(OutputCollector<Text, LongWritable> output, byte statistic, ByteCountTable table) throws IOException {
+        Text entry = new Text();
+        for (int i = 0; i < table.size(); i++) {
+            table.key(i, entry);
+            tag[0] = statistic;
+            key.set(tag, 0, 1);
+            key.append(entry.getBytes(), 0, entry.getLength());
+            count.set(table.count(i));
+            output.collect(key, count);
+        }
+    }
+
+    private void emit(OutputCollector<Text, LongWritable> output, byte statistic, String name, long value) throws IOException {
+        if (value == 0) {
+            return;
+        }
+        tag[0] = statistic;
+        key.set(tag, 0, 1);
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        key.append(utf8, 0, utf8.length);
+        count.set(value);
+        output.collect(key, count);
+    }
+}
+
+// TA_Combiner.java
+import java.io.IOException;
+import java.util.Iterator;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+public class TA_Combiner extends MapReduceBase implements Reducer<Text, LongWritable, Text, LongWritable> {
+    private final LongWritable total = new LongWritable();
+
+    public void reduce(Text key, Iterator<LongWritable> values, OutputCollector<Text, LongWritable> output, Reporter reporter) throws IOException {
+        long sum = 0;
+        while (values.hasNext()) {
+            sum += values.next().get();
+        }
+        total.set(sum);
+        output.collect(key, total);
+    }
+}
+
+// TA_Reducer.java
+import java.io.IOException;
+import java.util.Iterator;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+
+// Sums each tagged key and writes it, untagged, to the named output of its statistic.
+public class TA_Reducer extends MapReduceBase implements Reducer<Text, LongWritable, Text, LongWritable> {
+    public static final byte WORDS = 'w';
+    public static final byte CHARS = 'c';
+    public static final byte TOTALS = 't';
+    public static final byte LENGTHS = 'l';
+
+    private MultipleOutputs outputs;
+    private final Text name = new Text();
+    private final LongWritable total = new LongWritable();
+
+    @Override
+    public void configure(JobConf job) {
+        outputs = new MultipleOutputs(job);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void reduce(Text key, Iterator<LongWritable> values, OutputCollector<Text, LongWritable> output, Reporter reporter) throws IOException {
+        long sum = 0;
+        while (values.hasNext()) {
+            sum += values.next().get();
+        }
+        name.set(key.getBytes(), 1, key.getLength() - 1);
+        total.set(sum);
+        outputs.getCollector(namedOutput(key.getBytes()[0]), reporter).collect(name, total);
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputs.close();
+    }
+
+    public static String namedOutput(byte tag) {
+        switch (tag) {
+            case WORDS:
+                return "words";
+            case CHARS:
+                return "chars";
+            case TOTALS:
+                return "totals";
+            case LENGTHS:
+                return "lengths";
+            default:
+                throw new IllegalArgumentException("Unknown statistic tag " + (char) tag);
+        }
+    }
+}
+
+// TA_Runner.java
+import java.io.IOException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.LazyOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+// Word counts, character counts, line/byte/word/char totals and the token-length histogram
+// (in characters) in one pass; results land in output/{words,chars,totals,lengths}-r-*.
+public class TA_Runner {
+    public static void main(String[] args) throws IOException {
+        JobConf conf = new JobConf(TA_Runner.class);
+        new GenericOptionsParser(conf, args);
+        conf.setJobName("TextAnalytics");
+        conf.setOutputKeyClass(Text.class);
+        conf.setOutputValueClass(LongWritable.class);
+        conf.setMapperClass(TA_Mapper.class);
+        conf.setCombinerClass(TA_Combiner.class);
+        conf.setReducerClass(TA_Reducer.class);
+        conf.setInputFormat(TextInputFormat.class);
+        LazyOutputFormat.setOutputFormatClass(conf, TextOutputFormat.class);
+        for (String name : new String[] {"words", "chars", "totals", "lengths"}) {
+            MultipleOutputs.addNamedOutput(conf, name, TextOutputFormat.class, Text.class, LongWritable.class);
+        }
+
+        FileInputFormat.setInputPaths(conf, new Path("input.txt"));
+        FileOutputFormat.setOutputPath(conf, new Path("output"));
+
+        JobClient.runJob(conf);
+    }
+}
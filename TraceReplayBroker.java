@@ -0,0 +1,338 @@
+package org.cloudbus.cloudsim.examples;
+
+import org.cloudbus.cloudsim.*;
+import org.cloudbus.cloudsim.core.CloudSim;
+import org.cloudbus.cloudsim.core.CloudSimTags;
+import org.cloudbus.cloudsim.core.SimEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Broker that replays a job trace instead of a prebuilt cloudlet list. Once the VMs are up it
+ * reads one job ahead, creates its Cloudlet bound round robin to a VM, and schedules the
+ * arrival at the job's (rebased, optionally sped up) submit time; the next job is read only
+ * when that one arrives. Finished cloudlets go to the result sink (see ResultStreamingBroker,
+ * received list off by default) and are not kept, so memory holds the in-flight jobs plus one
+ * lookahead record, however long the trace.
+ *
+ * Returned cloudlets are dropped rather than reused for later jobs. A Cloudlet cannot be reset:
+ * its id is final, so every job would report under the id of whichever job came first, and its
+ * execution history (one entry per datacenter it ran on) only grows, so its times and costs
+ * would add up over the jobs it carried. The sink may also still hold it. Each job is one
+ * short-lived allocation, which the young generation collects cheaply.
+ *
+ * A job's length is runTime * mipsPerSecond MI per PE. Jobs that ask for more PEs than the VM
+ * has are folded onto the VM's PEs with the length scaled up so the total work is unchanged.
+ * Jobs with a run time of zero or less (cancelled entries in SWF) are skipped.
+ *
+ * Files ending in .swf are read as SWF, anything else as CSV with submit time, run time and
+ * PEs in the first three columns.
+ */
+public class TraceReplayBroker extends ResultStreamingBroker {
+
+    private static final int JOB_ARRIVAL = 46201;
+
+    private final TraceReader trace;
+    private final double mipsPerSecond;
+    private final double speedup;
+    private final UtilizationModel utilization = new UtilizationModelFull();
+    private double firstSubmit = -1;
+    private double startClock;
+    private boolean exhausted;
+    private int nextVm;
+    private int nextCloudletId;
+    private long skipped;
+
+    public TraceReplayBroker(String name, String traceFile, double mipsPerSecond, double speedup) throws Exception {
+        this(name, traceFile.endsWith(".swf") ? TraceReader.swf(traceFile) : TraceReader.csv(traceFile, 0, 1, 2),
+                mipsPerSecond, speedup);
+    }
+
+    TraceReplayBroker(String name, TraceReader trace, double mipsPerSecond, double speedup) throws Exception {
+        super(name);
+        this.trace = trace;
+        this.mipsPerSecond = mipsPerSecond;
+        this.speedup = speedup;
+        setRetainReceived(false);
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    protected void submitCloudlets() {
+        super.submitCloudlets();
+        if (firstSubmit < 0 && !exhausted) {
+            startClock = CloudSim.clock();
+            scheduleNextArrival();
+        }
+    }
+
+    @Override
+    protected void processOtherEvent(SimEvent ev) {
+        if (ev.getTag() != JOB_ARRIVAL) {
+            super.processOtherEvent(ev);
+            return;
+        }
+        Cloudlet cloudlet = (Cloudlet) ev.getData();
+        sendNow(getVmsToDatacentersMap().get(cloudlet.getVmId()), CloudSimTags.CLOUDLET_SUBMIT, cloudlet);
+        cloudletsSubmitted++;
+        scheduleNextArrival();
+    }
+
+    @Override
+    protected void processCloudletReturn(SimEvent ev) {
+        record((Cloudlet) ev.getData());
+        cloudletsSubmitted--;
+        finishIfDone();
+    }
+
+    private void finishIfDone() {
+        if (exhausted && cloudletsSubmitted == 0) {
+            Log.printLine(CloudSim.clock() + ": " + getName() + ": Trace replayed, "
+                    + nextCloudletId + " jobs, " + skipped + " skipped. Finishing...");
+            clearDatacenters();
+            finishExecution();
+        }
+    }
+
+    private void scheduleNextArrival() {
+        try {
+            while (trace.next()) {
+                if (trace.runTime() <= 0) {
+                    skipped++;
+                    continue;
+                }
+                if (firstSubmit < 0) {
+                    firstSubmit = trace.submitTime();
+                }
+                double arrival = startClock + (trace.submitTime() - firstSubmit) / speedup;
+                schedule(getId(), Math.max(0, arrival - CloudSim.clock()), JOB_ARRIVAL, createCloudlet());
+                return;
+            }
+            exhausted = true;
+            trace.close();
+            finishIfDone();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Cloudlet createCloudlet() {
+        List<Vm> vms = getVmsCreatedList();
+        Vm vm = vms.get(nextVm);
+        nextVm = (nextVm + 1) % vms.size();
+        int vmPes = vm.getNumberOfPes();
+        int pes = Math.max(1, trace.pes());
+        double length = trace.runTime() * mipsPerSecond;
+        if (pes > vmPes) {
+            length = length * pes / vmPes;
+            pes = vmPes;
+        }
+        Cloudlet cloudlet = new Cloudlet(nextCloudletId++, Math.max(1, Math.round(length)), pes,
+                300, 300, utilization, utilization, utilization, false);
+        cloudlet.setUserId(getId());
+        cloudlet.setVmId(vm.getId());
+        return cloudlet;
+    }
+}
+
+/**
+ * Allocation-free reader over a memory-mapped trace file. SWF (Standard Workload Format:
+ * whitespace-separated, ';' comments, submit time in field 2, run time in 4, allocated
+ * processors in 5, requested processors in 8) or CSV with the submit time, run time and PE
+ * count in configurable columns; a first line that does not start with a number is taken as a
+ * header. The file is mapped in windows of up to 256 MB, each starting at a line boundary, so
+ * traces larger than 2 GB work too.
+ */
+class TraceReader implements Closeable {
+
+    private static final long WINDOW = 256L << 20;
+    private static final int MAX_FIELDS = 32;
+
+    private final FileChannel channel;
+    private final boolean swf;
+    private final int submitColumn;
+    private final int runTimeColumn;
+    private final int pesColumn;
+    private final double[] fields = new double[MAX_FIELDS];
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private int fieldCount;
+    private boolean fieldOpen;
+
+    static TraceReader swf(String file) throws IOException {
+        return new TraceReader(file, true, 1, 3, 4);
+    }
+
+    static TraceReader csv(String file, int submitColumn, int runTimeColumn, int pesColumn) throws IOException {
+        return new TraceReader(file, false, submitColumn, runTimeColumn, pesColumn);
+    }
+
+    private TraceReader(String file, boolean swf, int submitColumn, int runTimeColumn, int pesColumn) throws IOException {
+        this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        this.swf = swf;
+        this.submitColumn = submitColumn;
+        this.runTimeColumn = runTimeColumn;
+        this.pesColumn = pesColumn;
+        map(0);
+        if (!swf && buffer.hasRemaining()) {
+            byte first = buffer.get(0);
+            if (!(first >= '0' && first <= '9') && first != '-' && first != '.') {
+                skipLine();
+            }
+        }
+    }
+
+    /** Advances to the next job record; false at end of file. */
+    boolean next() throws IOException {
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                long position = windowStart + buffer.position();
+                if (position >= channel.size()) {
+                    return false;
+                }
+                map(position);
+            }
+            int lineStart = buffer.position();
+            if (lineStart > 0 && !hasFullLine(lineStart) && windowStart + buffer.limit() < channel.size()) {
+                // the line runs past this window; remap starting at it
+                map(windowStart + lineStart);
+                continue;
+            }
+            if (parseLine()) {
+                return true;
+            }
+        }
+    }
+
+    double submitTime() {
+        return fields[submitColumn];
+    }
+
+    double runTime() {
+        return fields[runTimeColumn];
+    }
+
+    int pes() {
+        int pes = (int) fields[pesColumn];
+        // SWF: allocated processors may be missing (-1); fall back to requested processors
+        return swf && pes <= 0 ? (int) fields[7] : pes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, channel.size() - position));
+    }
+
+    private boolean hasFullLine(int from) {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Parses the line at the buffer position into fields; false for blank and comment lines. */
+    private boolean parseLine() {
+        fieldCount = 0;
+        boolean comment = false;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get(buffer.position());
+            if (b == '\n') {
+                buffer.get();
+                break;
+            }
+            if (comment || b == '\r') {
+                buffer.get();
+            } else if (swf && b == ';') {
+                comment = true;
+                buffer.get();
+            } else if (!swf && b == ',') {
+                // empty CSV fields count as 0
+                buffer.get();
+                if (!fieldOpen) {
+                    store(0);
+                }
+                fieldOpen = false;
+            } else if (b == ' ' || b == '\t') {
+                buffer.get();
+            } else {
+                store(parseNumber());
+                fieldOpen = true;
+            }
+        }
+        fieldOpen = false;
+        int needed = Math.max(submitColumn, Math.max(runTimeColumn, pesColumn)) + 1;
+        return fieldCount >= (swf ? 8 : needed);
+    }
+
+    private void store(double value) {
+        if (fieldCount < MAX_FIELDS) {
+            fields[fieldCount] = value;
+        }
+        fieldCount++;
+    }
+
+    /** Reads [-]digits[.digits][e[-]digits]; any other character ends the number and is skipped. */
+    private double parseNumber() {
+        boolean negative = false;
+        if (buffer.get(buffer.position()) == '-') {
+            negative = true;
+            buffer.get();
+        }
+        double value = 0;
+        double scale = 0;
+        int exponent = 0;
+        boolean inExponent = false;
+        boolean negativeExponent = false;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get(buffer.position());
+            if (b >= '0' && b <= '9') {
+                if (inExponent) {
+                    exponent = exponent * 10 + (b - '0');
+                } else if (scale == 0) {
+                    value = value * 10 + (b - '0');
+                } else {
+                    value += (b - '0') * scale;
+                    scale /= 10;
+                }
+            } else if (b == '.' && scale == 0 && !inExponent) {
+                scale = 0.1;
+            } else if ((b == 'e' || b == 'E') && !inExponent) {
+                inExponent = true;
+                if (buffer.position() + 1 < buffer.limit() && buffer.get(buffer.position() + 1) == '-') {
+                    negativeExponent = true;
+                    buffer.get();
+                }
+            } else if (b == ' ' || b == '\t' || b == ',' || b == '\n' || b == '\r' || (swf && b == ';')) {
+                break;
+            }
+            buffer.get();
+        }
+        if (exponent != 0) {
+            value *= Math.pow(10, negativeExponent ? -exponent : exponent);
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipLine() {
+        while (buffer.hasRemaining() && buffer.get() != '\n') {
+            // header
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// Utf8.java
+// UTF-8 validation shared by CharacterCount (CodePointCounter) and TextAnalytics (TA_Mapper), so
+// both jobs agree on what a character is: a well-formed sequence counts once, and every byte that
+// starts none counts as U+FFFD on its own, like Text.toString(). Compile it alongside either job.
+public final class Utf8 {
+    private Utf8() {
+    }
+
+    // Length of the well-formed UTF-8 sequence at i, or 0 if the byte there starts none:
+    // a stray continuation byte, a truncated sequence, an overlong form, a surrogate or a code
+    // point above U+10FFFF.
+    public static int sequenceLength(byte[] data, int i, int end) {
+        int b = data[i] & 0xff;
+        if (b < 0x80) {
+            return 1;
+        }
+        int n;
+        int cp;
+        if (b >= 0xc2 && b < 0xe0) {
+            n = 2;
+            cp = b & 0x1f;
+        } else if (b >= 0xe0 && b < 0xf0) {
+            n = 3;
+            cp = b & 0x0f;
+        } else if (b >= 0xf0 && b < 0xf5) {
+            n = 4;
+            cp = b & 0x07;
+        } else {
+            return 0;
+        }
+        int j = 1;
+        while (j < n && i + j < end && (data[i + j] & 0xc0) == 0x80) {
+            cp = (cp << 6) | (data[i + j] & 0x3f);
+            j++;
+        }
+        if (j < n
+                || (n == 3 && (cp < 0x800 || (cp >= 0xd800 && cp <= 0xdfff)))
+                || (n == 4 && (cp < 0x10000 || cp > 0x10ffff))) {
+            return 0;
+        }
+        return n;
+    }
+
+    // Code point of the n-byte sequence at i, which sequenceLength has accepted.
+    public static int codePoint(byte[] data, int i, int n) {
+        if (n == 1) {
+            return data[i];
+        }
+        int cp = data[i] & (0xff >> (n + 1));
+        for (int j = 1; j < n; j++) {
+            cp = (cp << 6) | (data[i + j] & 0x3f);
+        }
+        return cp;
+    }
+}
@@ -3,42 +3,2082 @@ import java.util.StringTokenizer;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+public class WC_Mapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, IntWritable> {
+    public static final String TOKENIZER = "wordcount.tokenizer";
+    public static final String IN_MAPPER = "wordcount.inmapper";
+    public static final String IN_MAPPER_MEMORY = "wordcount.inmapper.memory.bytes";
+
+    private final static IntWritable one = new IntWritable(1);
+    private Text word = new Text();
+    private final IntWritable count = new IntWritable();
+    private final ByteTokenizer tokens = new ByteTokenizer();
+    private boolean stringTokenizer;
+    private ByteCountTable counts;
+    private long maxTableBytes;
+    private OutputCollector<Text, IntWritable> collector;
+    private MapTimer timer;
+
+    @Override
+    public void configure(JobConf job) {
+        timer = new MapTimer(job);
+        // "bytes" (default) scans the raw UTF-8 of each record, "string" keeps the StringTokenizer path
+        stringTokenizer = "string".equals(job.get(TOKENIZER, "bytes"));
+        if (job.getBoolean(IN_MAPPER, false)) {
+            counts = new ByteCountTable(1024);
+            maxTableBytes = job.getLong(IN_MAPPER_MEMORY, 64L << 20);
+        }
+    }
+
+    public void map(LongWritable key, Text value, OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
+        collector = output;
+        timer.startRecord();
+        if (stringTokenizer) {
+            String line = value.toString();
+            StringTokenizer tokenizer = new StringTokenizer(line);
+            while (tokenizer.hasMoreTokens()) {
+                word.set(tokenizer.nextToken());
+                timer.startCollect();
+                if (counts == null) {
+                    output.collect(word, one);
+                } else {
+                    aggregate(word.getBytes(), 0, word.getLength(), output);
+                }
+                timer.endCollect();
+            }
+        } else {
+            tokens.reset(value);
+            while (tokens.next()) {
+                timer.startCollect();
+                if (counts == null) {
+                    word.set(tokens.bytes(), tokens.start(), tokens.length());
+                    output.collect(word, one);
+                } else {
+                    aggregate(tokens.bytes(), tokens.start(), tokens.length(), output);
+                }
+                timer.endCollect();
+            }
+        }
+        timer.endRecord(reporter);
+    }
+
+    private void aggregate(byte[] bytes, int start, int length, OutputCollector<Text, IntWritable> output) throws IOException {
+        counts.add(bytes, start, length, 1);
+        if (counts.memoryBytes() > maxTableBytes) {
+            flush(output);
+        }
+    }
+
+    private void flush(OutputCollector<Text, IntWritable> output) throws IOException {
+        for (int i = 0; i < counts.size(); i++) {
+            counts.key(i, word);
+            count.set(counts.count(i));
+            output.collect(word, count);
+        }
+        counts.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (counts != null && collector != null) {
+            flush(collector);
+        }
+    }
+}
+
+
+import java.util.Arrays;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+// Open-addressing (linear probing) word -> int count table. Keys are copied into one shared
+// byte array and all per-entry state lives in parallel int arrays, so adding a word never boxes.
+public class ByteCountTable {
+    private int[] slots;
+    private int[] hashes;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] counts;
+    private byte[] keys;
+    private int keyBytes;
+    private int size;
+
+    public ByteCountTable(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(initialCapacity, 16) - 1) << 1;
+        slots = new int[capacity * 2];
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        counts = new int[capacity];
+        keys = new byte[capacity * 8];
+    }
+
+    public void add(byte[] bytes, int start, int length, int delta) {
+        int hash = WritableComparator.hashBytes(bytes, start, length);
+        hash ^= hash >>> 16;
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            entry--;
+            if (hashes[entry] == hash && lengths[entry] == length
+                    && WritableComparator.compareBytes(keys, offsets[entry], length, bytes, start, length) == 0) {
+                counts[entry] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == hashes.length) {
+            growEntries();
+        }
+        if (keyBytes + length > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keyBytes + length));
+        }
+        System.arraycopy(bytes, start, keys, keyBytes, length);
+        hashes[size] = hash;
+        offsets[size] = keyBytes;
+        lengths[size] = length;
+        counts[size] = delta;
+        keyBytes += length;
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void key(int entry, Text target) {
+        target.set(keys, offsets[entry], lengths[entry]);
+    }
+
+    public int count(int entry) {
+        return counts[entry];
+    }
+
+    public void addAll(ByteCountTable other) {
+        for (int entry = 0; entry < other.size; entry++) {
+            add(other.keys, other.offsets[entry], other.lengths[entry], other.counts[entry]);
+        }
+    }
+
+    // Entry indexes in Text (unsigned byte) order.
+    public Integer[] sortedEntries() {
+        Integer[] order = new Integer[size];
+        for (int entry = 0; entry < size; entry++) {
+            order[entry] = entry;
+        }
+        Arrays.sort(order, (a, b) -> WritableComparator.compareBytes(keys, offsets[a], lengths[a], keys, offsets[b], lengths[b]));
+        return order;
+    }
+
+    // Approximate footprint of the live entries, used to decide when the owner should flush.
+    public long memoryBytes() {
+        return 24L * size + keyBytes;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+        keyBytes = 0;
+    }
+
+    private void growEntries() {
+        int capacity = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hashes[entry] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+}
+
+
+import org.apache.hadoop.io.Text;
+
+// Splits a Text on the StringTokenizer default delimiters (" \t\n\r\f") directly on its UTF-8 bytes.
+// All delimiters are ASCII, so they can never appear inside a multi-byte sequence.
+public class ByteTokenizer {
+    private byte[] bytes;
+    private int pos;
+    private int end;
+    private int start;
+
+    public void reset(Text text) {
+        reset(text.getBytes(), 0, text.getLength());
+    }
+
+    public void reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = offset + length;
+        this.start = offset;
+    }
+
+    public boolean next() {
+        while (pos < end && isDelimiter(bytes[pos])) {
+            pos++;
+        }
+        if (pos == end) {
+            return false;
+        }
+        start = pos;
+        while (pos < end && !isDelimiter(bytes[pos])) {
+            pos++;
+        }
+        return true;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int length() {
+        return pos - start;
+    }
+
+    public static boolean isDelimiter(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+}
+
+
+import java.io.IOException;
+import java.util.Iterator;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+public class WC_Reducer extends MapReduceBase implements Reducer<Text, IntWritable, Text, IntWritable> {
+    private boolean mapSide;
+
+    @Override
+    public void configure(JobConf job) {
+        mapSide = JobMetrics.isMapSide(job);
+    }
+
+    public void reduce(Text key, Iterator<IntWritable> values, OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
+        int sum = 0;
+        long length = 0;
+        while (values.hasNext()) {
+            sum += values.next().get();
+            length++;
+        }
+        output.collect(key, new IntWritable(sum));
+        JobMetrics.recordValueList(reporter, mapSide, length);
+    }
+}
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+// A Space-Saving counter as shipped from TopK_Mapper to TopK_Reducer. mapperMin is the smallest
+// count of the sending summary (0 if it never evicted), which bounds any word it did not report.
+public class TopKEntryWritable implements Writable {
+    private long count;
+    private long error;
+    private long mapperMin;
+
+    public void set(long count, long error, long mapperMin) {
+        this.count = count;
+        this.error = error;
+        this.mapperMin = mapperMin;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getError() {
+        return error;
+    }
+
+    public long getMapperMin() {
+        return mapperMin;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, count);
+        WritableUtils.writeVLong(out, error);
+        WritableUtils.writeVLong(out, mapperMin);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        count = WritableUtils.readVLong(in);
+        error = WritableUtils.readVLong(in);
+        mapperMin = WritableUtils.readVLong(in);
+    }
+
+    @Override
+    public String toString() {
+        return count + "\t" + error;
+    }
+}
+
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.io.Text;
+
+// Space-Saving heavy-hitters summary (Metwally et al.) over at most `capacity` words. Counters
+// sit in a min-heap by count; an unseen word replaces the minimum and inherits its count as error.
+public class SpaceSaving {
+    public static final class Counter {
+        final Text word = new Text();
+        long count;
+        long error;
+        int heapIndex;
+
+        public Text getWord() {
+            return word;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+
+    private final Counter[] heap;
+    private final Map<Text, Counter> counters;
+    private final Text probe = new Text();
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        heap = new Counter[capacity];
+        counters = new HashMap<>(capacity * 2);
+    }
+
+    public void offer(byte[] bytes, int start, int length, long weight) {
+        probe.set(bytes, start, length);
+        Counter counter = counters.get(probe);
+        boolean appended = false;
+        if (counter == null) {
+            if (size < heap.length) {
+                counter = new Counter();
+                counter.heapIndex = size;
+                heap[size++] = counter;
+                appended = true;
+            } else {
+                counter = heap[0];
+                counters.remove(counter.word);
+                counter.error = counter.count;
+            }
+            counter.word.set(bytes, start, length);
+            counters.put(counter.word, counter);
+        }
+        counter.count += weight;
+        // a new leaf can only be smaller than its parents; everything else only grew
+        if (appended) {
+            siftUp(counter.heapIndex);
+        } else {
+            siftDown(counter.heapIndex);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Counter get(int i) {
+        return heap[i];
+    }
+
+    // Upper bound on the count of any word not in the summary.
+    public long minCount() {
+        return size < heap.length ? 0 : heap[0].count;
+    }
+
+    private void siftUp(int i) {
+        Counter counter = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heap[i].heapIndex = i;
+            i = parent;
+        }
+        heap[i] = counter;
+        counter.heapIndex = i;
+    }
+
+    private void siftDown(int i) {
+        Counter counter = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (heap[child].count >= counter.count) {
+                break;
+            }
+            heap[i] = heap[child];
+            heap[i].heapIndex = i;
+            i = child;
+        }
+        heap[i] = counter;
+        counter.heapIndex = i;
+    }
+}
+
+
+import java.io.IOException;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+// Feeds every token of the split into a SpaceSaving summary and emits only the summary in close().
+// The empty key (never produced by the tokenizer) carries this mapper's minimum count.
+public class TopK_Mapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, TopKEntryWritable> {
+    public static final String K = "wordcount.topk";
+    public static final String CAPACITY = "wordcount.topk.capacity";
+
+    private final ByteTokenizer tokens = new ByteTokenizer();
+    private SpaceSaving summary;
+    private OutputCollector<Text, TopKEntryWritable> collector;
+
+    @Override
+    public void configure(JobConf job) {
+        int k = job.getInt(K, 1000);
+        summary = new SpaceSaving(job.getInt(CAPACITY, Math.max(10 * k, 10000)));
+    }
+
+    public void map(LongWritable key, Text value, OutputCollector<Text, TopKEntryWritable> output, Reporter reporter) throws IOException {
+        collector = output;
+        tokens.reset(value);
+        while (tokens.next()) {
+            summary.offer(tokens.bytes(), tokens.start(), tokens.length(), 1);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (collector == null) {
+            return;
+        }
+        TopKEntryWritable entry = new TopKEntryWritable();
+        long min = summary.minCount();
+        entry.set(min, 0, min);
+        collector.collect(new Text(), entry);
+        for (int i = 0; i < summary.size(); i++) {
+            SpaceSaving.Counter counter = summary.get(i);
+            entry.set(counter.getCount(), counter.getError(), min);
+            collector.collect(counter.getWord(), entry);
+        }
+    }
+}
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+// Merges the mapper summaries (mergeable Space-Saving: a summary that did not report a word
+// contributes its minimum to both the estimate and the error) and keeps the K largest estimates.
+// Must run as the single reducer; output is "word<TAB>estimate<TAB>error", largest first, and the
+// true count lies in [estimate - error, estimate].
+public class TopK_Reducer extends MapReduceBase implements Reducer<Text, TopKEntryWritable, Text, TopKEntryWritable> {
+    private static final class Candidate {
+        final Text word;
+        final long estimate;
+        final long error;
+
+        Candidate(Text word, long estimate, long error) {
+            this.word = word;
+            this.estimate = estimate;
+            this.error = error;
+        }
+    }
+
+    private int k;
+    private long sumOfMins;
+    private PriorityQueue<Candidate> top;
+    private OutputCollector<Text, TopKEntryWritable> collector;
+
+    @Override
+    public void configure(JobConf job) {
+        k = job.getInt(TopK_Mapper.K, 1000);
+        top = new PriorityQueue<>(k + 1, (a, b) -> Long.compare(a.estimate, b.estimate));
+    }
+
+    public void reduce(Text key, Iterator<TopKEntryWritable> values, OutputCollector<Text, TopKEntryWritable> output, Reporter reporter) throws IOException {
+        collector = output;
+        if (key.getLength() == 0) {
+            while (values.hasNext()) {
+                sumOfMins += values.next().getMapperMin();
+            }
+            return;
+        }
+        long count = 0;
+        long error = 0;
+        long reportedMins = 0;
+        while (values.hasNext()) {
+            TopKEntryWritable entry = values.next();
+            count += entry.getCount();
+            error += entry.getError();
+            reportedMins += entry.getMapperMin();
+        }
+        long unreported = sumOfMins - reportedMins;
+        long estimate = count + unreported;
+        if (top.size() < k || estimate > top.peek().estimate) {
+            top.add(new Candidate(new Text(key), estimate, error + unreported));
+            if (top.size() > k) {
+                top.poll();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (collector == null) {
+            return;
+        }
+        List<Candidate> ranked = new ArrayList<>(top);
+        ranked.sort((a, b) -> Long.compare(b.estimate, a.estimate));
+        TopKEntryWritable value = new TopKEntryWritable();
+        for (Candidate candidate : ranked) {
+            value.set(candidate.estimate, candidate.error, 0);
+            collector.collect(candidate.word, value);
+        }
+    }
+}
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.ReflectionUtils;
+
+// Slides an n-token window over each line and emits a 64-bit fingerprint per n-gram, so map output
+// is 8 + 4 bytes whatever n is. The first time this task sees a fingerprint it also writes
+// fingerprint -> "w1 w2 ..." to the "dict" named output of the reducer partition that will own it.
+public class NGram_Mapper extends MapReduceBase implements Mapper<LongWritable, Text, LongWritable, IntWritable> {
+    public static final String N = "wordcount.ngram.n";
+    public static final String DICTIONARY = "dict";
+    public static final String DICTIONARY_CACHE = "wordcount.ngram.dictionary.cache";
+
+    private final static IntWritable one = new IntWritable(1);
+    private final static byte[] SPACE = {' '};
+    private final LongWritable fingerprint = new LongWritable();
+    private final Text ngram = new Text();
+    private final ByteTokenizer tokens = new ByteTokenizer();
+    private int n;
+    private int[] starts;
+    private int[] lengths;
+    private long[] hashes;
+    private long[] seen;
+    private int seenSize;
+    private MultipleOutputs dictionary;
+    private Partitioner<LongWritable, IntWritable> partitioner;
+    private int partitions;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void configure(JobConf job) {
+        n = job.getInt(N, 2);
+        starts = new int[n];
+        lengths = new int[n];
+        hashes = new long[n];
+        seen = new long[Integer.highestOneBit(Math.max(job.getInt(DICTIONARY_CACHE, 1 << 20), 2) - 1) << 2];
+        dictionary = new MultipleOutputs(job);
+        partitioner = ReflectionUtils.newInstance(job.getPartitionerClass(), job);
+        partitions = job.getNumReduceTasks();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void map(LongWritable key, Text value, OutputCollector<LongWritable, IntWritable> output, Reporter reporter) throws IOException {
+        tokens.reset(value);
+        int count = 0;
+        while (tokens.next()) {
+            int slot = count++ % n;
+            starts[slot] = tokens.start();
+            lengths[slot] = tokens.length();
+            hashes[slot] = hash(tokens.bytes(), tokens.start(), tokens.length());
+            if (count < n) {
+                continue;
+            }
+            long fp = 0;
+            for (int i = count - n; i < count; i++) {
+                fp = (Long.rotateLeft(fp, 23) ^ hashes[i % n]) * 0x9e3779b97f4a7c15L;
+            }
+            fingerprint.set(mix(fp));
+            output.collect(fingerprint, one);
+            if (firstSighting(fingerprint.get())) {
+                ngram.clear();
+                for (int i = count - n; i < count; i++) {
+                    if (i > count - n) {
+                        ngram.append(SPACE, 0, 1);
+                    }
+                    ngram.append(tokens.bytes(), starts[i % n], lengths[i % n]);
+                }
+                int partition = partitions > 0 ? partitioner.getPartition(fingerprint, one, partitions) : 0;
+                dictionary.getCollector(DICTIONARY, "p" + partition, reporter).collect(fingerprint, ngram);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        dictionary.close();
+    }
+
+    // Bounded open-addressing set of fingerprints already written; it is simply reset when half full,
+    // which only costs duplicate dictionary entries. 0 is the empty marker, so it is never remembered.
+    private boolean firstSighting(long fp) {
+        if (fp == 0) {
+            return true;
+        }
+        int mask = seen.length - 1;
+        int slot = (int) fp & mask;
+        while (seen[slot] != 0) {
+            if (seen[slot] == fp) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (++seenSize * 2 > seen.length) {
+            Arrays.fill(seen, 0);
+            seenSize = 1;
+            slot = (int) fp & mask;
+        }
+        seen[slot] = fp;
+        return true;
+    }
+
+    // FNV-1a over the token bytes, finished with the murmur3 64-bit mixer.
+    private static long hash(byte[] bytes, int start, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < start + length; i++) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
+
+
+import java.io.IOException;
+import java.util.Iterator;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+public class NGram_Reducer extends MapReduceBase implements Reducer<LongWritable, IntWritable, LongWritable, IntWritable> {
+    private final IntWritable total = new IntWritable();
+
+    public void reduce(LongWritable key, Iterator<IntWritable> values, OutputCollector<LongWritable, IntWritable> output, Reporter reporter) throws IOException {
+        int sum = 0;
+        while (values.hasNext()) {
+            sum += values.next().get();
+        }
+        total.set(sum);
+        output.collect(key, total);
+    }
+}
+
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+
+// Turns the fingerprint counts of an n-gram job back into text. Each reducer partition is
+// resolved against only the dictionary files written for that partition.
+public class NGramDictionary {
+    public static void resolve(JobConf conf, Path fingerprints, Path output) throws IOException {
+        FileSystem fs = fingerprints.getFileSystem(conf);
+        fs.mkdirs(output);
+        for (FileStatus part : fs.listStatus(fingerprints, path -> path.getName().startsWith("part-"))) {
+            String partition = part.getPath().getName().substring("part-".length());
+            String prefix = NGram_Mapper.DICTIONARY + "_p" + Integer.parseInt(partition) + "-";
+            Map<Long, Text> names = new HashMap<>();
+            LongWritable fingerprint = new LongWritable();
+            for (FileStatus dict : fs.listStatus(fingerprints, path -> path.getName().startsWith(prefix))) {
+                try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(dict.getPath()))) {
+                    Text name = new Text();
+                    while (reader.next(fingerprint, name)) {
+                        names.putIfAbsent(fingerprint.get(), name);
+                        name = new Text();
+                    }
+                }
+            }
+            IntWritable count = new IntWritable();
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part.getPath()));
+                 FSDataOutputStream out = fs.create(new Path(output, "part-" + partition))) {
+                while (reader.next(fingerprint, count)) {
+                    Text name = names.get(fingerprint.get());
+                    if (name != null) {
+                        out.write(name.getBytes(), 0, name.getLength());
+                    } else {
+                        out.writeBytes(String.format("#%016x", fingerprint.get()));
+                    }
+                    out.writeBytes("\t" + count.get() + "\n");
+                }
+            }
+        }
+        fs.create(new Path(output, "_SUCCESS")).close();
+    }
+}
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TextInputFormat;
+
+// Reads only the byte ranges listed in wordcount.incremental.ranges ("start:end:path", end being
+// just past the last complete line). LineRecordReader drops the first line of any split that does
+// not start at 0, so a range starting at X > 0 is opened at X - 1, the '\n' that ends the
+// previous run's data, and ends at end - 1 so the trailing partial line is left for the next run.
+public class AppendedTextInputFormat extends TextInputFormat {
+    public static final String RANGES = "wordcount.incremental.ranges";
+    public static final String SPLIT_BYTES = "wordcount.incremental.split.bytes";
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        long splitBytes = job.getLong(SPLIT_BYTES, 128L << 20);
+        List<InputSplit> splits = new ArrayList<>();
+        for (String range : job.getStrings(RANGES, new String[0])) {
+            String[] fields = range.split(":", 3);
+            long start = Long.parseLong(fields[0]);
+            long end = Long.parseLong(fields[1]);
+            Path path = new Path(fields[2]);
+            FileSystem fs = path.getFileSystem(job);
+            FileStatus status = fs.getFileStatus(path);
+            long first = start == 0 ? 0 : start - 1;
+            long last = end - 1;
+            for (long pos = first; pos == first || pos < last; pos += splitBytes) {
+                long length = Math.min(splitBytes, last - pos);
+                BlockLocation[] blocks = fs.getFileBlockLocations(status, pos, Math.max(length, 1));
+                String[] hosts = blocks.length > 0 ? blocks[0].getHosts() : new String[0];
+                splits.add(new FileSplit(path, pos, length, hosts));
+            }
+        }
+        return splits.toArray(new InputSplit[0]);
+    }
+}
+
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.LineRecordReader;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.CombineFileInputFormat;
+import org.apache.hadoop.mapred.lib.CombineFileRecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+// Packs many small files into each split so the number of map tasks follows the input volume,
+// not the file count. Blocks are grouped node-local first, then rack-local, up to
+// wordcount.packed.split.bytes per split; mapreduce.input.fileinputformat.split.minsize.per.node
+// and .per.rack bound the leftovers as usual. The reader streams the files of a split one after
+// another through a LineRecordReader each, so keys are offsets within the current file.
+public class PackedTextInputFormat extends CombineFileInputFormat<LongWritable, Text> {
+    public static final String SPLIT_BYTES = "wordcount.packed.split.bytes";
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        // without a maximum, CombineFileInputFormat puts everything on a node into one split
+        setMaxSplitSize(job.getLong(SPLIT_BYTES, 128L << 20));
+        return super.getSplits(job, numSplits);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RecordReader<LongWritable, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+        reporter.setStatus(split.toString());
+        return new CombineFileRecordReader<>(job, (CombineFileSplit) split, reporter, (Class) FileLineReader.class);
+    }
+
+    // One file of a packed split; CombineFileRecordReader creates these through this constructor.
+    static class FileLineReader implements RecordReader<LongWritable, Text> {
+        private final LineRecordReader reader;
+
+        FileLineReader(CombineFileSplit split, Configuration conf, Reporter reporter, Integer index) throws IOException {
+            reader = new LineRecordReader(conf, new FileSplit(split.getPath(index), split.getOffset(index),
+                    split.getLength(index), split.getLocations()));
+        }
+
+        public boolean next(LongWritable key, Text value) throws IOException {
+            return reader.next(key, value);
+        }
+
+        public LongWritable createKey() {
+            return reader.createKey();
+        }
+
+        public Text createValue() {
+            return reader.createValue();
+        }
+
+        public long getPos() throws IOException {
+            return reader.getPos();
+        }
+
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+
+// Word counts over append-only inputs. The index directory holds generations "counts-N", each a
+// SequenceFile of Text -> LongWritable sorted by word whose metadata records how far each input
+// file has been read; the highest N is the live one. A run counts only the bytes appended since
+// then, merges that delta into the live index in one streaming pass and rewrites
+// output/part-00000 from the merged stream. The merged index is written as counts-(N+1).tmp and
+// published by renaming it to counts-(N+1), a new name, so the previous generation stays intact
+// until that single rename and a failed run is simply repeated; older generations are deleted
+// afterwards. An input that has disappeared keeps its offset, as its words stay counted.
+public class IncrementalWordCount {
+    public static final String INDEX = "wordcount.incremental.index";
+    private static final String OFFSET = "offset:";
+    private static final String GENERATION = "counts-";
+
+    private final JobConf conf;
+
+    public IncrementalWordCount(JobConf conf) {
+        this.conf = conf;
+    }
+
+    public void run(Path input, Path output) throws IOException {
+        Path indexDir = new Path(conf.get(INDEX, "wordcount-index"));
+        FileSystem fs = indexDir.getFileSystem(conf);
+        Path index = liveIndex(fs, indexDir);
+        Map<String, Long> offsets = readOffsets(fs, index);
+
+        SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+        List<String> ranges = new ArrayList<>();
+        FileSystem inputFs = input.getFileSystem(conf);
+        for (FileStatus file : inputFs.listStatus(input, path -> !path.getName().startsWith("_") && !path.getName().startsWith("."))) {
+            if (file.isDirectory()) {
+                continue;
+            }
+            String path = file.getPath().toString();
+            Long indexed = offsets.remove(path);
+            long start = indexed != null ? indexed : 0;
+            if (file.getLen() < start) {
+                throw new IOException(path + " shrank below its indexed offset " + start + "; inputs must be append-only");
+            }
+            long end = endOfLastLine(inputFs, file, start);
+            if (end > start) {
+                ranges.add(start + ":" + end + ":" + path);
+            }
+            metadata.set(new Text(OFFSET + path), new Text(Long.toString(end)));
+        }
+        for (Map.Entry<String, Long> missing : offsets.entrySet()) {
+            metadata.set(new Text(OFFSET + missing.getKey()), new Text(Long.toString(missing.getValue())));
+        }
+        if (ranges.isEmpty()) {
+            return;
+        }
+
+        Path delta = new Path(indexDir, "delta");
+        fs.delete(delta, true);
+        conf.setStrings(AppendedTextInputFormat.RANGES, ranges.toArray(new String[0]));
+        conf.setInputFormat(AppendedTextInputFormat.class);
+        conf.setOutputFormat(SequenceFileOutputFormat.class);
+        conf.setNumReduceTasks(1);
+        FileInputFormat.setInputPaths(conf, input);
+        FileOutputFormat.setOutputPath(conf, delta);
+        JobClient.runJob(conf);
+
+        Path published = new Path(indexDir, GENERATION + (index == null ? 1 : generation(index) + 1));
+        Path merged = new Path(indexDir, published.getName() + ".tmp");
+        FileSystem outFs = output.getFileSystem(conf);
+        outFs.delete(output, true);
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(merged),
+                SequenceFile.Writer.keyClass(Text.class), SequenceFile.Writer.valueClass(LongWritable.class),
+                SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK, new DefaultCodec()),
+                SequenceFile.Writer.metadata(metadata));
+             FSDataOutputStream text = outFs.create(new Path(output, "part-00000"))) {
+            merge(fs, index, new Path(delta, "part-00000"), writer, text);
+        }
+        outFs.create(new Path(output, "_SUCCESS")).close();
+        if (!fs.rename(merged, published)) {
+            throw new IOException("Cannot publish " + merged + " as " + published);
+        }
+        // counts-(N+1) is live now; drop older generations and what failed runs left behind
+        for (FileStatus file : fs.listStatus(indexDir)) {
+            String name = file.getPath().getName();
+            if (!name.equals(published.getName()) && (generation(file.getPath()) >= 0 || name.startsWith(GENERATION))) {
+                fs.delete(file.getPath(), true);
+            }
+        }
+        fs.delete(delta, true);
+    }
+
+    // The highest counts-N in the index directory (or "counts", as written before generations), or null.
+    private static Path liveIndex(FileSystem fs, Path indexDir) throws IOException {
+        Path live = null;
+        if (fs.exists(indexDir)) {
+            for (FileStatus file : fs.listStatus(indexDir)) {
+                if (generation(file.getPath()) >= 0 && (live == null || generation(file.getPath()) > generation(live))) {
+                    live = file.getPath();
+                }
+            }
+        }
+        return live;
+    }
+
+    // N for counts-N, 0 for the unversioned "counts", -1 for anything else (such as counts-N.tmp).
+    private static long generation(Path path) {
+        String name = path.getName();
+        if (name.equals("counts")) {
+            return 0;
+        }
+        if (name.startsWith(GENERATION)) {
+            try {
+                return Long.parseLong(name.substring(GENERATION.length()));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private void merge(FileSystem fs, Path index, Path delta, SequenceFile.Writer writer, FSDataOutputStream text) throws IOException {
+        Text oldWord = new Text();
+        LongWritable oldCount = new LongWritable();
+        Text newWord = new Text();
+        IntWritable newCount = new IntWritable();
+        LongWritable total = new LongWritable();
+        SequenceFile.Reader old = index != null ? new SequenceFile.Reader(conf, SequenceFile.Reader.file(index)) : null;
+        try (SequenceFile.Reader added = new SequenceFile.Reader(conf, SequenceFile.Reader.file(delta))) {
+            boolean hasOld = old != null && old.next(oldWord, oldCount);
+            boolean hasNew = added.next(newWord, newCount);
+            while (hasOld || hasNew) {
+                int cmp = !hasOld ? 1 : !hasNew ? -1 : oldWord.compareTo(newWord);
+                Text word = cmp <= 0 ? oldWord : newWord;
+                total.set((cmp <= 0 ? oldCount.get() : 0) + (cmp >= 0 ? newCount.get() : 0));
+                writer.append(word, total);
+                text.write(word.getBytes(), 0, word.getLength());
+                text.writeBytes("\t" + total.get() + "\n");
+                if (cmp <= 0) {
+                    hasOld = old.next(oldWord, oldCount);
+                }
+                if (cmp >= 0) {
+                    hasNew = added.next(newWord, newCount);
+                }
+            }
+        } finally {
+            if (old != null) {
+                old.close();
+            }
+        }
+    }
+
+    private Map<String, Long> readOffsets(FileSystem fs, Path index) throws IOException {
+        Map<String, Long> offsets = new HashMap<>();
+        if (index == null) {
+            return offsets;
+        }
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(index))) {
+            for (Map.Entry<Text, Text> entry : reader.getMetadata().getMetadata().entrySet()) {
+                String key = entry.getKey().toString();
+                if (key.startsWith(OFFSET)) {
+                    offsets.put(key.substring(OFFSET.length()), Long.parseLong(entry.getValue().toString()));
+                }
+            }
+        }
+        return offsets;
+    }
+
+    // Position just past the last '\n' at or after `from`, or `from` if the appended bytes hold no full line yet.
+    private static long endOfLastLine(FileSystem fs, FileStatus file, long from) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long pos = file.getLen();
+        try (FSDataInputStream in = fs.open(file.getPath())) {
+            while (pos > from) {
+                int n = (int) Math.min(buffer.length, pos - from);
+                in.readFully(pos - n, buffer, 0, n);
+                for (int i = n - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n') {
+                        return pos - n + i + 1;
+                    }
+                }
+                pos -= n;
+            }
+        }
+        return from;
+    }
+}
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+// Partitioner planned from a sample of the input taken before the job is submitted (see plan()).
+// Hash mode keeps hash partitioning for ordinary words but pins each sampled hot word to a
+// reducer chosen greedily (largest first, least loaded reducer), so no reducer gets two giants.
+// Sorted mode cuts the sampled key space into ranges of equal sampled weight, total-order style,
+// so part-00000, part-00001, ... are globally sorted. The plan is a SequenceFile of Text -> reducer:
+// the hot words, or each range's last key.
+public class SkewAwarePartitioner implements Partitioner<Text, IntWritable> {
+    public static final String FILE = "wordcount.partitioner.file";
+    public static final String SORTED = "wordcount.partitioner.sorted";
+    public static final String SAMPLE_SPLITS = "wordcount.sample.splits";
+    public static final String SAMPLE_RECORDS = "wordcount.sample.records";
+    public static final String KEYS_PER_REDUCER = "wordcount.reduce.keys.per.task";
+    public static final String MAX_REDUCERS = "wordcount.reduce.max.tasks";
+    public static final String HOT_FACTOR = "wordcount.partitioner.hot.factor";
+
+    private boolean sorted;
+    private Text[] splitPoints;
+    private int[] splitPartitions;
+    private Map<Text, Integer> hot;
+
+    @Override
+    public void configure(JobConf job) {
+        sorted = job.getBoolean(SORTED, false);
+        List<Text> keys = new ArrayList<>();
+        List<Integer> partitions = new ArrayList<>();
+        Path file = new Path(job.get(FILE));
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(job, SequenceFile.Reader.file(file))) {
+            Text key = new Text();
+            IntWritable partition = new IntWritable();
+            while (reader.next(key, partition)) {
+                keys.add(key);
+                partitions.add(partition.get());
+                key = new Text();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read partition plan " + file, e);
+        }
+        splitPoints = keys.toArray(new Text[0]);
+        splitPartitions = new int[partitions.size()];
+        hot = new HashMap<>();
+        for (int i = 0; i < splitPoints.length; i++) {
+            splitPartitions[i] = partitions.get(i);
+            hot.put(splitPoints[i], splitPartitions[i]);
+        }
+    }
+
+    public int getPartition(Text key, IntWritable value, int numPartitions) {
+        if (sorted) {
+            int i = Arrays.binarySearch(splitPoints, key);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < splitPoints.length ? splitPartitions[i] : numPartitions - 1;
+        }
+        Integer partition = hot.get(key);
+        return partition != null ? partition : (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    // Samples the job's input, sets the reducer count from the estimated number of distinct words
+    // and writes the partition plan to `file`.
+    public static void plan(JobConf conf, Path file) throws IOException {
+        InputSplit[] splits = conf.getInputFormat().getSplits(conf, conf.getNumMapTasks());
+        int sampleSplits = Math.min(splits.length, conf.getInt(SAMPLE_SPLITS, 10));
+        int sampleRecords = conf.getInt(SAMPLE_RECORDS, 10000);
+        long totalBytes = 0;
+        for (InputSplit split : splits) {
+            totalBytes += split.getLength();
+        }
+
+        ByteCountTable sample = new ByteCountTable(1024);
+        ByteTokenizer tokens = new ByteTokenizer();
+        long sampledBytes = 0;
+        long sampledTokens = 0;
+        for (int i = 0; i < sampleSplits; i++) {
+            InputSplit split = splits[(int) ((long) i * splits.length / sampleSplits)];
+            @SuppressWarnings("unchecked")
+            RecordReader<LongWritable, Text> reader = conf.getInputFormat().getRecordReader(split, conf, Reporter.NULL);
+            try {
+                LongWritable key = reader.createKey();
+                Text value = reader.createValue();
+                for (int n = 0; n < sampleRecords && reader.next(key, value); n++) {
+                    sampledBytes += value.getLength() + 1;
+                    tokens.reset(value);
+                    while (tokens.next()) {
+                        sample.add(tokens.bytes(), tokens.start(), tokens.length(), 1);
+                        sampledTokens++;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // GEE estimator: words seen once stand for sqrt(1/fraction) unseen ones
+        double fraction = totalBytes == 0 ? 1 : Math.min(1.0, (double) sampledBytes / totalBytes);
+        long singletons = 0;
+        for (int i = 0; i < sample.size(); i++) {
+            if (sample.count(i) == 1) {
+                singletons++;
+            }
+        }
+        double distinct = Math.sqrt(1 / Math.max(fraction, 1e-9)) * singletons + (sample.size() - singletons);
+        int reducers = (int) Math.ceil(distinct / conf.getLong(KEYS_PER_REDUCER, 500000));
+        reducers = Math.max(1, Math.min(reducers, conf.getInt(MAX_REDUCERS, 100)));
+        conf.setNumReduceTasks(reducers);
+
+        Integer[] order = sample.sortedEntries();
+        Text word = new Text();
+        IntWritable partition = new IntWritable();
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(file),
+                SequenceFile.Writer.keyClass(Text.class), SequenceFile.Writer.valueClass(IntWritable.class))) {
+            if (conf.getBoolean(SORTED, false)) {
+                long cumulative = 0;
+                int next = 0;
+                for (int entry : order) {
+                    cumulative += sample.count(entry);
+                    if (next < reducers - 1 && cumulative * reducers >= (next + 1) * sampledTokens) {
+                        sample.key(entry, word);
+                        partition.set(next++);
+                        writer.append(word, partition);
+                    }
+                }
+            } else {
+                // hot: more than 1/hot.factor of a reducer's fair share of the sampled tokens
+                int hotFactor = conf.getInt(HOT_FACTOR, 4);
+                List<Integer> hotEntries = new ArrayList<>();
+                long hotTokens = 0;
+                for (int entry : order) {
+                    if ((long) sample.count(entry) * reducers * hotFactor >= sampledTokens) {
+                        hotEntries.add(entry);
+                        hotTokens += sample.count(entry);
+                    }
+                }
+                hotEntries.sort((a, b) -> Integer.compare(sample.count(b), sample.count(a)));
+                double[] load = new double[reducers];
+                Arrays.fill(load, (double) (sampledTokens - hotTokens) / reducers);
+                for (int entry : hotEntries) {
+                    int target = 0;
+                    for (int r = 1; r < reducers; r++) {
+                        if (load[r] < load[target]) {
+                            target = r;
+                        }
+                    }
+                    load[target] += sample.count(entry);
+                    sample.key(entry, word);
+                    partition.set(target);
+                    writer.append(word, partition);
+                }
+            }
+        }
+        conf.set(FILE, file.toString());
+        conf.setPartitionerClass(SkewAwarePartitioner.class);
+    }
+}
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+// Runs the job's mapper and reducer in process over local files: line-aligned chunks of the
+// memory-mapped input are mapped in parallel, per-chunk counts are merged and the reducer
+// writes part-00000 in the same "key<TAB>value" layout as TextOutputFormat. Returns the job's
+// counters, including the TaskCounter record counts a real job would report.
+public class LocalJobEngine {
+    public static final String THREADS = "wordcount.local.threads";
+    public static final String CHUNK_BYTES = "wordcount.local.chunk.bytes";
+
+    private final JobConf conf;
+
+    public LocalJobEngine(JobConf conf) {
+        this.conf = conf;
+    }
+
+    public Counters run(Path input, Path output) throws IOException {
+        File outputDir = new File(output.toUri().getPath());
+        if (outputDir.exists()) {
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+        }
+        int threads = conf.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        long chunkBytes = conf.getLong(CHUNK_BYTES, 32L << 20);
+
+        List<MapTask> tasks = new ArrayList<>();
+        for (File file : listInputs(new File(input.toUri().getPath()))) {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                long length = in.length();
+                long start = 0;
+                while (start < length) {
+                    long end = nextLineStart(in, Math.min(start + chunkBytes, length), length);
+                    tasks.add(new MapTask(file, start, end));
+                    start = end;
+                }
+            }
+        }
+
+        ByteCountTable counts = new ByteCountTable(1024);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<ByteCountTable> partial : pool.invokeAll(tasks)) {
+                counts.addAll(partial.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        Counters counters = new Counters();
+        for (MapTask task : tasks) {
+            counters.incrAllCounters(task.reporter.getCounters());
+        }
+        CountersReporter reporter = new CountersReporter();
+        reduce(counts, outputDir, reporter);
+        counters.incrAllCounters(reporter.getCounters());
+        return counters;
+    }
+
+    // Also used by StreamingWordCount to write each window.
+    void reduce(ByteCountTable counts, File outputDir, CountersReporter reporter) throws IOException {
+        if (!outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        @SuppressWarnings("unchecked")
+        Reducer<Text, IntWritable, Object, Object> reducer = ReflectionUtils.newInstance(conf.getReducerClass(), conf);
+        Text key = new Text();
+        IntWritable value = new IntWritable();
+        boolean binary = conf.getOutputFormat() instanceof CountFileOutputFormat;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(outputDir, "part-00000")), 1 << 16);
+             CountFileWriter countFile = binary ? new CountFileWriter(out, conf) : null) {
+            OutputCollector<Object, Object> writer = (k, v) -> {
+                reporter.incrCounter(TaskCounter.REDUCE_OUTPUT_RECORDS, 1);
+                if (binary) {
+                    countFile.append((Text) k, ((IntWritable) v).get());
+                    return;
+                }
+                write(out, k);
+                out.write('\t');
+                write(out, v);
+                out.write('\n');
+            };
+            for (int entry : counts.sortedEntries()) {
+                counts.key(entry, key);
+                value.set(counts.count(entry));
+                reporter.incrCounter(TaskCounter.REDUCE_INPUT_GROUPS, 1);
+                reducer.reduce(key, Collections.singletonList(value).iterator(), writer, reporter);
+            }
+            reducer.close();
+        }
+        new File(outputDir, "_SUCCESS").createNewFile();
+    }
+
+    private static void write(OutputStream out, Object o) throws IOException {
+        if (o instanceof Text) {
+            out.write(((Text) o).getBytes(), 0, ((Text) o).getLength());
+        } else {
+            out.write(o.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<File> listInputs(File input) {
+        List<File> files = new ArrayList<>();
+        if (!input.isDirectory()) {
+            files.add(input);
+            return files;
+        }
+        File[] children = input.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                // same hidden-file rule as FileInputFormat
+                if (child.isFile() && !child.getName().startsWith("_") && !child.getName().startsWith(".")) {
+                    files.add(child);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long nextLineStart(RandomAccessFile in, long pos, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (pos < length) {
+            in.seek(pos);
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, length - pos));
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return length;
+    }
+
+    private class MapTask implements Callable<ByteCountTable> {
+        private final File file;
+        private final long start;
+        private final long end;
+        private final CountersReporter reporter = new CountersReporter();
+
+        MapTask(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public ByteCountTable call() throws IOException {
+            ByteCountTable counts = new ByteCountTable(1024);
+            OutputCollector<Text, IntWritable> collector = (k, v) -> {
+                reporter.incrCounter(TaskCounter.MAP_OUTPUT_RECORDS, 1);
+                counts.add(k.getBytes(), 0, k.getLength(), v.get());
+            };
+            @SuppressWarnings("unchecked")
+            Mapper<LongWritable, Text, Text, IntWritable> mapper = ReflectionUtils.newInstance(conf.getMapperClass(), conf);
+            try (RandomAccessFile in = new RandomAccessFile(file, "r");
+                 FileChannel channel = in.getChannel()) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                LongWritable key = new LongWritable();
+                Text value = new Text();
+                byte[] line = new byte[256];
+                while (buffer.hasRemaining()) {
+                    int lineStart = buffer.position();
+                    int length = 0;
+                    boolean newline = false;
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        if (b == '\n') {
+                            newline = true;
+                            break;
+                        }
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, length * 2);
+                        }
+                        line[length++] = b;
+                    }
+                    // LineRecordReader drops the '\r' of a CRLF terminator
+                    if (newline && length > 0 && line[length - 1] == '\r') {
+                        length--;
+                    }
+                    key.set(start + lineStart);
+                    value.set(line, 0, length);
+                    reporter.incrCounter(TaskCounter.MAP_INPUT_RECORDS, 1);
+                    mapper.map(key, value, collector, reporter);
+                }
+            } finally {
+                mapper.close();
+            }
+            return counts;
+        }
+    }
+}
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.util.ReflectionUtils;
+
+// Continuous word count over a local directory. New and appended files are picked up through a
+// WatchService and only their new complete lines are read; the job's mapper feeds them into the
+// current pane, a slice of processing time as long as gcd(window, slide). When a window
+// [start, start + window.ms) has passed it is merged from its panes and written by the job's
+// reducer to output/<start>-<end>/part-00000, after which panes no later window needs are dropped.
+// slide.ms == window.ms (the default) gives tumbling windows, a smaller slide sliding ones. The
+// last few window results stay in memory for window(). Runs until stop() or interruption.
+public class StreamingWordCount {
+    public static final String WINDOW_MS = "wordcount.stream.window.ms";
+    public static final String SLIDE_MS = "wordcount.stream.slide.ms";
+    public static final String RETAINED = "wordcount.stream.windows.retained";
+    public static final String FROM_START = "wordcount.stream.from.start";
+
+    private final JobConf conf;
+    private final long windowMs;
+    private final long slideMs;
+    private final long paneMs;
+    private final TreeMap<Long, ByteCountTable> panes = new TreeMap<>();
+    private final Map<java.nio.file.Path, Long> offsets = new HashMap<>();
+    private final Map<Long, ByteCountTable> recent;
+    private final Mapper<LongWritable, Text, Text, IntWritable> mapper;
+    private final CountersReporter reporter = new CountersReporter();
+    private final LongWritable key = new LongWritable();
+    private final Text value = new Text();
+    private byte[] chunk = new byte[1 << 20];
+    private ByteCountTable pane;
+    private final OutputCollector<Text, IntWritable> collector = (k, v) -> pane.add(k.getBytes(), 0, k.getLength(), v.get());
+    private volatile boolean stopped;
+
+    @SuppressWarnings("unchecked")
+    public StreamingWordCount(JobConf conf) {
+        this.conf = new JobConf(conf);
+        // panes are the aggregation, the mapper must emit every record as it comes
+        this.conf.setBoolean(WC_Mapper.IN_MAPPER, false);
+        windowMs = conf.getLong(WINDOW_MS, 60000);
+        slideMs = conf.getLong(SLIDE_MS, windowMs);
+        if (windowMs <= 0 || slideMs <= 0 || slideMs > windowMs) {
+            throw new IllegalArgumentException("Need 0 < " + SLIDE_MS + " <= " + WINDOW_MS);
+        }
+        long a = windowMs;
+        long b = slideMs;
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        paneMs = a;
+        int retained = conf.getInt(RETAINED, 4);
+        recent = new LinkedHashMap<Long, ByteCountTable>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ByteCountTable> eldest) {
+                return size() > retained;
+            }
+        };
+        mapper = ReflectionUtils.newInstance(this.conf.getMapperClass(), this.conf);
+    }
+
+    public void run(Path input, Path output) throws IOException {
+        java.nio.file.Path dir = new File(input.toUri().getPath()).toPath();
+        File outputDir = new File(output.toUri().getPath());
+        long started = System.currentTimeMillis();
+        // first window still ending after the start; earlier panes are simply empty
+        long nextWindow = Math.floorDiv(started - windowMs, slideMs) * slideMs + slideMs;
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            if (conf.getBoolean(FROM_START, true)) {
+                scan(dir, started);
+            } else {
+                try (DirectoryStream<java.nio.file.Path> files = Files.newDirectoryStream(dir)) {
+                    for (java.nio.file.Path file : files) {
+                        offsets.put(file, Files.size(file));
+                    }
+                }
+            }
+            while (!stopped) {
+                long now = System.currentTimeMillis();
+                while (nextWindow + windowMs <= now) {
+                    emit(nextWindow, outputDir);
+                    nextWindow += slideMs;
+                    panes.headMap(Math.floorDiv(nextWindow, paneMs)).clear();
+                }
+                // wake up for the next window end at the latest, so results are never held back
+                WatchKey watchKey = watcher.poll(nextWindow + windowMs - now, TimeUnit.MILLISECONDS);
+                if (watchKey == null) {
+                    continue;
+                }
+                now = System.currentTimeMillis();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scan(dir, now);
+                    } else {
+                        ingest(dir.resolve((java.nio.file.Path) event.context()), now);
+                    }
+                }
+                watchKey.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mapper.close();
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    // Counts of a recently emitted window, by start time, or null once it has been evicted.
+    public synchronized ByteCountTable window(long start) {
+        return recent.get(start);
+    }
+
+    private void scan(java.nio.file.Path dir, long now) throws IOException {
+        try (DirectoryStream<java.nio.file.Path> files = Files.newDirectoryStream(dir)) {
+            for (java.nio.file.Path file : files) {
+                ingest(file, now);
+            }
+        }
+    }
+
+    // Maps the complete lines appended to file since the last call; a trailing partial line waits.
+    private void ingest(java.nio.file.Path file, long now) throws IOException {
+        String name = file.getFileName().toString();
+        // same hidden-file rule as FileInputFormat
+        if (name.startsWith("_") || name.startsWith(".") || !Files.isRegularFile(file)) {
+            return;
+        }
+        pane = panes.computeIfAbsent(Math.floorDiv(now, paneMs), p -> new ByteCountTable(1024));
+        long offset = offsets.getOrDefault(file, 0L);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                offset = 0; // truncated or replaced, start over
+            }
+            while (offset < size) {
+                int n = channel.read(ByteBuffer.wrap(chunk), offset);
+                if (n <= 0) {
+                    break;
+                }
+                int lineStart = 0;
+                for (int i = 0; i < n; i++) {
+                    if (chunk[i] == '\n') {
+                        // LineRecordReader drops the '\r' of a CRLF terminator
+                        int end = i > lineStart && chunk[i - 1] == '\r' ? i - 1 : i;
+                        key.set(offset + lineStart);
+                        value.set(chunk, lineStart, end - lineStart);
+                        mapper.map(key, value, collector, reporter);
+                        lineStart = i + 1;
+                    }
+                }
+                if (lineStart == 0) {
+                    if (n < chunk.length) {
+                        break;
+                    }
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                }
+                offset += lineStart;
+            }
+        }
+        offsets.put(file, offset);
+    }
+
+    private void emit(long start, File outputDir) throws IOException {
+        ByteCountTable counts = new ByteCountTable(1024);
+        for (ByteCountTable slice : panes.subMap(Math.floorDiv(start, paneMs), Math.floorDiv(start + windowMs, paneMs)).values()) {
+            counts.addAll(slice);
+        }
+        new LocalJobEngine(conf).reduce(counts, new File(outputDir, start + "-" + (start + windowMs)), reporter);
+        synchronized (this) {
+            recent.put(start, counts);
+        }
+    }
+}
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.LazyOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.StringUtils;
+
+// Local-disk cache of count results, addressed by content. Each input split is keyed by a hash
+// of its bytes (plus the byte before it and the line running past its end, which decide its
+// records; a whole-file split uses the FileSystem checksum when there is one) and of the job
+// settings that change the counts. A run whose splits are all known reuses the cached output of
+// that exact job. Otherwise only the unknown splits go through a map-only job that writes one
+// sorted partial count file per split, and the output is merged locally from all partials and
+// written like LocalJobEngine does, so output must be a local path. Entries are evicted least
+// recently used first (by mtime, refreshed on every hit) once the cache outgrows
+// wordcount.cache.max.bytes.
+public class ResultCache {
+    public static final String DIR = "wordcount.cache.dir";
+    public static final String MAX_BYTES = "wordcount.cache.max.bytes";
+    static final String SPLITS = "wordcount.cache.splits";
+    static final String INPUT_FORMAT = "wordcount.cache.input.format";
+    static final String MAPPER = "wordcount.cache.mapper";
+
+    private final JobConf conf;
+    private final File splitDir;
+    private final File jobDir;
+
+    public ResultCache(JobConf conf) {
+        this.conf = conf;
+        File root = new File(conf.get(DIR));
+        splitDir = new File(root, "splits");
+        jobDir = new File(root, "jobs");
+    }
+
+    // Input paths are taken from the job; returns the counters of the partials job, if one ran.
+    public Counters run(Path output) throws IOException {
+        File outputDir = new File(output.toUri().getPath());
+        if (outputDir.exists()) {
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+        }
+        splitDir.mkdirs();
+        jobDir.mkdirs();
+
+        byte[] fingerprint = fingerprint(conf.getJobName(), conf.getMapperClass().getName(),
+                conf.getReducerClass().getName(), conf.get(WC_Mapper.TOKENIZER, "bytes"),
+                conf.getInputFormat().getClass().getName());
+        InputSplit[] splits = conf.getInputFormat().getSplits(conf, conf.getNumMapTasks());
+        List<String> keys = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (InputSplit split : splits) {
+            FileSplit file = (FileSplit) split;
+            String key = StringUtils.byteToHexString(digest(fingerprint, contentHash(file)));
+            keys.add(key);
+            if (!new File(splitDir, key).exists()) {
+                missing.add(key + "@" + file.getStart() + "@" + file.getPath());
+            }
+        }
+        String[] sortedKeys = keys.toArray(new String[0]);
+        Arrays.sort(sortedKeys);
+        File cachedJob = new File(jobDir, StringUtils.byteToHexString(
+                fingerprint(conf.getOutputFormat().getClass().getName(), String.join(",", sortedKeys))));
+        if (cachedJob.isDirectory()) {
+            touch(cachedJob);
+            copy(cachedJob, outputDir);
+            evict();
+            return new Counters();
+        }
+
+        Counters counters = missing.isEmpty() ? new Counters() : runPartials(missing);
+        ByteCountTable counts = new ByteCountTable(1024);
+        Text word = new Text();
+        LongWritable count = new LongWritable();
+        FileSystem local = FileSystem.getLocal(conf);
+        for (String key : keys) {
+            File partial = new File(splitDir, key);
+            touch(partial);
+            try (CountFileReader reader = new CountFileReader(local, new Path(partial.getPath()), conf)) {
+                while (reader.next(word, count)) {
+                    counts.add(word.getBytes(), 0, word.getLength(), (int) count.get());
+                }
+            }
+        }
+        CountersReporter reporter = new CountersReporter();
+        new LocalJobEngine(conf).reduce(counts, outputDir, reporter);
+        counters.incrAllCounters(reporter.getCounters());
+
+        File staged = new File(jobDir, cachedJob.getName() + ".tmp");
+        FileUtil.fullyDelete(staged);
+        copy(outputDir, staged);
+        if (!staged.renameTo(cachedJob)) {
+            FileUtil.fullyDelete(staged);
+        }
+        evict();
+        return counters;
+    }
+
+    // Map-only job over the missing splits; each writes its partial as partial_<key>-m-NNNNN.
+    private Counters runPartials(List<String> missing) throws IOException {
+        JobConf job = new JobConf(conf);
+        job.setJobName(conf.getJobName() + "-partials");
+        job.setStrings(SPLITS, missing.toArray(new String[0]));
+        job.setClass(INPUT_FORMAT, conf.getInputFormat().getClass(), org.apache.hadoop.mapred.InputFormat.class);
+        job.setInputFormat(SelectedSplitsInputFormat.class);
+        job.setClass(MAPPER, conf.getMapperClass(), org.apache.hadoop.mapred.Mapper.class);
+        job.setMapperClass(PartialCount_Mapper.class);
+        job.setNumReduceTasks(0);
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        MultipleOutputs.addMultiNamedOutput(job, PartialCount_Mapper.PARTIAL, CountFileOutputFormat.class, Text.class, IntWritable.class);
+        Path partials = new Path(conf.get("hadoop.tmp.dir", "/tmp"), "wordcount-partials-" + System.nanoTime());
+        FileOutputFormat.setOutputPath(job, partials);
+
+        FileSystem fs = partials.getFileSystem(job);
+        try {
+            Counters counters = JobClient.runJob(job).getCounters();
+            String prefix = PartialCount_Mapper.PARTIAL + "_";
+            for (FileStatus status : fs.listStatus(partials)) {
+                String name = status.getPath().getName();
+                if (name.startsWith(prefix)) {
+                    String key = name.substring(prefix.length(), name.indexOf('-'));
+                    File staged = new File(splitDir, key + ".tmp");
+                    fs.copyToLocalFile(false, status.getPath(), new Path(staged.getPath()), true);
+                    if (!staged.renameTo(new File(splitDir, key))) {
+                        staged.delete();
+                    }
+                }
+            }
+            return counters;
+        } finally {
+            fs.delete(partials, true);
+        }
+    }
+
+    // Drops least recently used entries until the cache fits; entries in use were just touched.
+    private void evict() {
+        long maxBytes = conf.getLong(MAX_BYTES, 1L << 30);
+        List<File> entries = new ArrayList<>();
+        long total = 0;
+        for (File dir : new File[] {splitDir, jobDir}) {
+            File[] children = dir.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    entries.add(child);
+                    total += FileUtil.getDU(child);
+                }
+            }
+        }
+        entries.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+            total -= FileUtil.getDU(entries.get(i));
+            FileUtil.fullyDelete(entries.get(i));
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        if (!to.mkdirs()) {
+            throw new IOException("Cannot create " + to);
+        }
+        File[] files = from.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.copy(file.toPath(), new File(to, file.getName()).toPath());
+            }
+        }
+    }
+
+    private static void touch(File entry) {
+        entry.setLastModified(System.currentTimeMillis());
+    }
+
+    private byte[] contentHash(FileSplit split) throws IOException {
+        Path path = split.getPath();
+        FileSystem fs = path.getFileSystem(conf);
+        long fileLength = fs.getFileStatus(path).getLen();
+        MessageDigest md5 = md5();
+        if (split.getStart() == 0 && split.getLength() == fileLength) {
+            FileChecksum checksum = fs.getFileChecksum(path);
+            if (checksum != null) {
+                md5.update(checksum.getBytes());
+                md5.update(Long.toString(fileLength).getBytes(StandardCharsets.UTF_8));
+                return md5.digest();
+            }
+        }
+        long pos = Math.max(0, split.getStart() - 1);
+        long end = split.getStart() + split.getLength();
+        byte[] buffer = new byte[1 << 16];
+        try (FSDataInputStream in = fs.open(path)) {
+            in.seek(pos);
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                int take = n;
+                boolean done = false;
+                for (int i = (int) Math.max(0, Math.min(n, end - pos)); i < n; i++) {
+                    if (buffer[i] == '\n') {
+                        take = i + 1;
+                        done = true;
+                        break;
+                    }
+                }
+                md5.update(buffer, 0, take);
+                pos += take;
+                if (done) {
+                    break;
+                }
+            }
+        }
+        return md5.digest();
+    }
+
+    private static byte[] fingerprint(String... parts) {
+        MessageDigest md5 = md5();
+        for (String part : parts) {
+            md5.update(part.getBytes(StandardCharsets.UTF_8));
+            md5.update((byte) 0);
+        }
+        return md5.digest();
+    }
+
+    private static byte[] digest(byte[] a, byte[] b) {
+        MessageDigest md5 = md5();
+        md5.update(a);
+        md5.update(b);
+        return md5.digest();
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // wordcount.cache.splits entries are "key@start@path"; maps "start@path" to the key.
+    static Map<String, String> splitKeys(JobConf job) {
+        Map<String, String> keys = new HashMap<>();
+        for (String entry : job.getStrings(SPLITS, new String[0])) {
+            String[] fields = entry.split("@", 2);
+            keys.put(fields[1], fields[0]);
+        }
+        return keys;
+    }
+}
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
 
-public class WC_Mapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, IntWritable> {
-    private final static IntWritable one = new IntWritable(1);
-    private Text word = new Text();
-    
-    public void map(LongWritable key, Text value, OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
-        String line = value.toString();
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        while (tokenizer.hasMoreTokens()) {
-            word.set(tokenizer.nextToken());
-            output.collect(word, one);
+// The splits of wordcount.cache.input.format that ResultCache listed as missing.
+public class SelectedSplitsInputFormat<K, V> implements InputFormat<K, V> {
+    @SuppressWarnings("unchecked")
+    private InputFormat<K, V> delegate(JobConf job) {
+        return ReflectionUtils.newInstance(job.getClass(ResultCache.INPUT_FORMAT, TextInputFormat.class, InputFormat.class), job);
+    }
+
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        Map<String, String> keys = ResultCache.splitKeys(job);
+        List<InputSplit> selected = new ArrayList<>();
+        for (InputSplit split : delegate(job).getSplits(job, numSplits)) {
+            FileSplit file = (FileSplit) split;
+            if (keys.containsKey(file.getStart() + "@" + file.getPath())) {
+                selected.add(split);
+            }
         }
+        return selected.toArray(new InputSplit[0]);
+    }
+
+    public RecordReader<K, V> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+        return delegate(job).getRecordReader(split, job, reporter);
     }
 }
 
 
 import java.io.IOException;
-import java.util.Iterator;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
-import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.ReflectionUtils;
 
-public class WC_Reducer extends MapReduceBase implements Reducer<Text, IntWritable, Text, IntWritable> {
-    public void reduce(Text key, Iterator<IntWritable> values, OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
-        int sum = 0;
-        while (values.hasNext()) {
-            sum += values.next().get();
+// Runs the job's own mapper (wordcount.cache.mapper) over one split, totals its output in memory
+// and writes it sorted to the split's partial count file in close(), even when it is empty.
+public class PartialCount_Mapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, IntWritable> {
+    public static final String PARTIAL = "partial";
+
+    private Mapper<LongWritable, Text, Text, IntWritable> mapper;
+    private MultipleOutputs outputs;
+    private String key;
+    private Reporter reporter = Reporter.NULL;
+    private final ByteCountTable counts = new ByteCountTable(1024);
+    private final OutputCollector<Text, IntWritable> collector = (k, v) -> counts.add(k.getBytes(), 0, k.getLength(), v.get());
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void configure(JobConf job) {
+        mapper = ReflectionUtils.newInstance(job.getClass(ResultCache.MAPPER, WC_Mapper.class, Mapper.class), job);
+        outputs = new MultipleOutputs(job);
+        key = ResultCache.splitKeys(job).get(job.get("mapreduce.map.input.start") + "@" + job.get("mapreduce.map.input.file"));
+    }
+
+    public void map(LongWritable offset, Text value, OutputCollector<Text, IntWritable> output, Reporter reporter) throws IOException {
+        this.reporter = reporter;
+        mapper.map(offset, value, collector, reporter);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void close() throws IOException {
+        mapper.close();
+        OutputCollector<Text, IntWritable> partial = outputs.getCollector(PARTIAL, key, reporter);
+        Text word = new Text();
+        IntWritable count = new IntWritable();
+        for (int entry : counts.sortedEntries()) {
+            counts.key(entry, word);
+            count.set(counts.count(entry));
+            partial.collect(word, count);
         }
-        output.collect(key, new IntWritable(sum));
+        outputs.close();
     }
 }
 
@@ -46,29 +2086,110 @@ public class WC_Reducer extends MapReduceBase implements Reducer<Text, IntWritab
 import java.io.IOException;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.mapred.TextInputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class WC_Runner {
     public static void main(String[] args) throws IOException {
         JobConf conf = new JobConf(WC_Runner.class);
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
         conf.setJobName("WordCount");
         conf.setOutputKeyClass(Text.class);
         conf.setOutputValueClass(IntWritable.class);
-        conf.setMapperClass(WC_Mapper.class);
-        conf.setCombinerClass(WC_Reducer.class);
-        conf.setReducerClass(WC_Reducer.class);
-        conf.setInputFormat(TextInputFormat.class);
+        // wordcount.input.packed=true for directories of many small files (see PackedTextInputFormat)
+        conf.setInputFormat(conf.getBoolean("wordcount.input.packed", false) ? PackedTextInputFormat.class : TextInputFormat.class);
         conf.setOutputFormat(TextOutputFormat.class);
         
-        FileInputFormat.setInputPaths(conf, new Path("input.txt"));
-        FileOutputFormat.setOutputPath(conf, new Path("output"));
+        // [input [output]], defaulting to input.txt and output
+        Path input = new Path(paths.length > 0 ? paths[0] : "input.txt");
+        Path output = new Path(paths.length > 1 ? paths[1] : "output");
+        Path jobOutput = output;
+        String mode = conf.get("wordcount.mode", "count");
+        if ("topk".equals(mode)) {
+            // mappers ship bounded summaries, one reducer merges them
+            conf.setJobName("WordCountTopK");
+            conf.setMapperClass(TopK_Mapper.class);
+            conf.setReducerClass(TopK_Reducer.class);
+            conf.setOutputValueClass(TopKEntryWritable.class);
+            conf.setNumReduceTasks(1);
+        } else if ("ngram".equals(mode)) {
+            // shuffle fixed-size fingerprints (LongWritable's raw comparator), resolve names afterwards
+            conf.setJobName("WordCountNGram");
+            conf.setMapperClass(NGram_Mapper.class);
+            conf.setCombinerClass(NGram_Reducer.class);
+            conf.setReducerClass(NGram_Reducer.class);
+            conf.setOutputKeyClass(LongWritable.class);
+            conf.setOutputFormat(SequenceFileOutputFormat.class);
+            MultipleOutputs.addMultiNamedOutput(conf, NGram_Mapper.DICTIONARY,
+                    SequenceFileOutputFormat.class, LongWritable.class, Text.class);
+            jobOutput = output.suffix("-fingerprints");
+        } else {
+            conf.setMapperClass(WC_Mapper.class);
+            conf.setCombinerClass(WC_Reducer.class);
+            conf.setReducerClass(WC_Reducer.class);
+            // countfile.output=true for binary output; map outputs are compressed either way
+            CountFileOutputFormat.configure(conf);
+        }
+
+        if ("stream".equals(mode)) {
+            // input is a directory watched until the process is stopped
+            conf.setMapperClass(WC_Mapper.class);
+            conf.setReducerClass(WC_Reducer.class);
+            CountFileOutputFormat.configure(conf);
+            new StreamingWordCount(conf).run(input, output);
+            return;
+        }
+        if ("incremental".equals(mode)) {
+            conf.setMapperClass(WC_Mapper.class);
+            conf.setCombinerClass(WC_Reducer.class);
+            conf.setReducerClass(WC_Reducer.class);
+            new IncrementalWordCount(conf).run(input, output);
+            return;
+        }
+        // -Dmetrics.json=<path> writes the job's counters there (see JobMetrics)
+        long started = System.nanoTime();
+        if ("count".equals(mode) && conf.getBoolean("wordcount.local", false)) {
+            Counters counters = new LocalJobEngine(conf).run(input, output);
+            JobMetrics.dump(conf, counters, System.nanoTime() - started);
+            return;
+        }
+
+        FileInputFormat.setInputPaths(conf, input);
+        FileOutputFormat.setOutputPath(conf, jobOutput);
         
-        JobClient.runJob(conf);
+        if ("count".equals(mode) && conf.get(ResultCache.DIR) != null) {
+            Counters counters = new ResultCache(conf).run(output);
+            JobMetrics.dump(conf, counters, System.nanoTime() - started);
+            return;
+        }
+
+        Path partitions = null;
+        if ("count".equals(mode) && "skew".equals(conf.get("wordcount.partitioner"))) {
+            partitions = output.suffix("-partitions");
+            SkewAwarePartitioner.plan(conf, partitions);
+        }
+        RunningJob job;
+        try {
+            job = JobClient.runJob(conf);
+        } finally {
+            if (partitions != null) {
+                partitions.getFileSystem(conf).delete(partitions, false);
+            }
+        }
+        if ("ngram".equals(mode)) {
+            NGramDictionary.resolve(conf, jobOutput, output);
+        }
+        JobMetrics.dump(conf, job.getCounters(), System.nanoTime() - started);
     }
 }
\ No newline at end of file